@@ -0,0 +1,63 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class represents a benchmark of the pixel loops of the model: the blur and sharpen
+ * convolutions, brighten, greyscale and sepia, run on one thread over a random image, and the
+ * Floyd-Steinberg dither on all the processors with and without its wavefront of tiles. It lives
+ * in its own source folder, apart from the tests, and is run as described in the README; compare
+ * the times printed before and after a change.
+ */
+public class ModelBenchmark {
+
+  /**
+   * Run every operation a number of times and print the best time of each.
+   *
+   * @param args width, height and number of runs, 2000, 1500 and 12 if left out
+   */
+  public static void main(String[] args) {
+    int width = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int height = args.length > 1 ? Integer.parseInt(args[1]) : 1500;
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 12;
+    int[] pixels = new int[width * height];
+    Random random = new Random(1);
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = random.nextInt(1 << 24);
+    }
+    Image image = new ImageImplExt(width, height, 255, pixels);
+    List<List<Double>> sepiaMat = new ArrayList<>();
+    sepiaMat.add(new ArrayList<>(Arrays.asList(0.393, 0.769, 0.189)));
+    sepiaMat.add(new ArrayList<>(Arrays.asList(0.349, 0.686, 0.168)));
+    sepiaMat.add(new ArrayList<>(Arrays.asList(0.272, 0.534, 0.131)));
+    Command sepia = new ColorTransform(sepiaMat);
+    RowBandScheduler.setParallelism(1);
+    // every run must compute its result, not find it in the cache
+    ResultCache.setCapacity(0);
+    time("blur", runs, () -> ((ImageExt) image).runCommand(new ImageBlur()));
+    time("sharpen", runs, () -> ((ImageExt) image).runCommand(new ImageSharpen()));
+    time("brighten", runs, () -> image.copy().brighten(30));
+    time("intensity", runs, () -> image.greyScale("intensity-component"));
+    time("luma", runs, () -> image.greyScale("luma-component"));
+    time("sepia", runs, () -> ((ImageExt) image).runCommand(sepia));
+    RowBandScheduler.setParallelism(Runtime.getRuntime().availableProcessors());
+    Command dither = ErrorDiffusion.floydSteinberg(false);
+    ErrorDiffusion.setWavefront(false);
+    time("dither", runs, () -> ((ImageExt) image).runCommand(dither));
+    ErrorDiffusion.setWavefront(true);
+    time("wavefront", runs, () -> ((ImageExt) image).runCommand(dither));
+  }
+
+  private static void time(String name, int runs, Runnable operation) {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < runs; run++) {
+      long start = System.nanoTime();
+      operation.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%-10s %8.1f ms%n", name, best / 1e6);
+  }
+}
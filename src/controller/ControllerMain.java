@@ -2,11 +2,14 @@ package controller;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 
 import model.ImageCollection;
 import model.ImageList;
 import model.ReadOnlyModel;
 import model.ReadOnlyModelImpl;
+import model.ResultCache;
+import model.RowBandScheduler;
 import view.IView;
 import view.JFrameView;
 
@@ -16,11 +19,31 @@ import view.JFrameView;
  */
 public class ControllerMain {
   /**
-   * Main method to run the application.
+   * Main method to run the application. The arguments may start with "-threads n" to set the
+   * number of threads used to process images and "-cache-mb n" to set the megabytes of results
+   * the result cache may hold, 0 disabling it; a missing or invalid number is reported as an
+   * error and the application does not start.
    *
    * @param args command line arguments from terminal
    */
   public static void main(String[] args) {
+    while (args.length >= 1 && (args[0].equals("-threads") || args[0].equals("-cache-mb"))) {
+      String value = args.length >= 2 ? args[1] : "";
+      try {
+        // NumberFormatException is an IllegalArgumentException, as is a value out of range
+        if (args[0].equals("-threads")) {
+          RowBandScheduler.setParallelism(Integer.parseInt(value));
+        } else {
+          ResultCache.setCapacity(Integer.parseInt(value) * (1L << 20));
+        }
+      } catch (IllegalArgumentException e) {
+        System.out.println(args[0].equals("-threads")
+                ? "Error: -threads expects a positive number of threads"
+                : "Error: -cache-mb expects a number of megabytes that is not negative");
+        return;
+      }
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
     ImageCollection model = new ImageList();
     Readable rd = new InputStreamReader(System.in);
     Appendable ap = System.out;
@@ -1,17 +1,28 @@
 package controller;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Scanner;
+import java.util.Set;
 
+import model.FusedCommand;
 import model.Image;
 import model.ImageCollection;
-import model.ImageImpl;
+import model.ImageExt;
+import model.ResultCache;
+import model.RowBandScheduler;
 
 /**
  * This class represents the controller of an interactive image editing application.
@@ -19,6 +30,10 @@ import model.ImageImpl;
  * type instructions to manipulate an image.
  */
 public class ImageController implements ApplicationController {
+  /**
+   * Name of the image shown by the GUI.
+   */
+  protected static final String VIEW_IMAGE = "view-image";
   protected final ImageCollection imageCollection;
   protected final Appendable appendable;
   protected final Readable readable;
@@ -71,8 +86,7 @@ public class ImageController implements ApplicationController {
         try {
           String filePath = sc.next();
           String objName = sc.next();
-          imageList.storeImage(objName,
-                  new ImageImpl.ImageBuilder().loadFile(this.loadImage(filePath)));
+          imageList.storeImage(objName, this.loadImage(filePath));
         } catch (IllegalArgumentException | IOException e) {
           writeMessage("Error: " + e.getMessage() + System.lineSeparator());
         }
@@ -83,9 +97,7 @@ public class ImageController implements ApplicationController {
           String srcObj = sc.next();
           String destObj = sc.next();
           Image img = imageList.returnImage(srcObj);
-          StringBuilder cloneImg = img.encodeImage();
-          Image img2 = new ImageImpl.ImageBuilder().loadFile(cloneImg);
-          imageList.storeImage(destObj, img2.brighten(val));
+          imageList.storeImage(destObj, img.copy().brighten(val));
         } catch (IllegalArgumentException e) {
           writeMessage("Error: " + e.getMessage() + System.lineSeparator());
         }
@@ -95,9 +107,7 @@ public class ImageController implements ApplicationController {
           String srcObj = sc.next();
           String destObj = sc.next();
           Image img = imageList.returnImage(srcObj);
-          StringBuilder cloneImg = img.encodeImage();
-          Image img2 = new ImageImpl.ImageBuilder().loadFile(cloneImg);
-          imageList.storeImage(destObj, img2.horizontalFlip());
+          imageList.storeImage(destObj, img.copy().horizontalFlip());
         } catch (IllegalArgumentException e) {
           writeMessage("Error: " + e.getMessage() + System.lineSeparator());
         }
@@ -107,9 +117,27 @@ public class ImageController implements ApplicationController {
           String srcObj = sc.next();
           String destObj = sc.next();
           Image img = imageList.returnImage(srcObj);
-          StringBuilder cloneImg = img.encodeImage();
-          Image img2 = new ImageImpl.ImageBuilder().loadFile(cloneImg);
-          imageList.storeImage(destObj, img2.verticalFlip());
+          imageList.storeImage(destObj, img.copy().verticalFlip());
+        } catch (IllegalArgumentException e) {
+          writeMessage("Error: " + e.getMessage() + System.lineSeparator());
+        }
+        break;
+      case "rotate-clockwise":
+        try {
+          String srcObj = sc.next();
+          String destObj = sc.next();
+          Image img = imageList.returnImage(srcObj);
+          imageList.storeImage(destObj, img.rotateClockwise());
+        } catch (IllegalArgumentException e) {
+          writeMessage("Error: " + e.getMessage() + System.lineSeparator());
+        }
+        break;
+      case "rotate-counterclockwise":
+        try {
+          String srcObj = sc.next();
+          String destObj = sc.next();
+          Image img = imageList.returnImage(srcObj);
+          imageList.storeImage(destObj, img.rotateCounterClockwise());
         } catch (IllegalArgumentException e) {
           writeMessage("Error: " + e.getMessage() + System.lineSeparator());
         }
@@ -128,9 +156,13 @@ public class ImageController implements ApplicationController {
       case "save":
         try {
           String filePath = sc.next();
+          boolean binary = filePath.equals("-binary");
+          if (binary) {
+            filePath = sc.next();
+          }
           String objName = sc.next();
           Image img = imageList.returnImage(objName);
-          this.saveFile(img, filePath);
+          this.saveFile(img, filePath, binary);
         } catch (IllegalArgumentException | IOException e) {
           writeMessage("Error: " + e.getMessage() + System.lineSeparator());
         }
@@ -173,6 +205,10 @@ public class ImageController implements ApplicationController {
         }
         break;
       }
+      case "cache-stats": //print the counters of the result cache
+        writeMessage("Cache hits: " + ResultCache.getHits() + ", misses: "
+                     + ResultCache.getMisses() + System.lineSeparator());
+        break;
       case "menu": //print the menu of supported instructions
         welcomeMessage();
         break;
@@ -181,26 +217,230 @@ public class ImageController implements ApplicationController {
     }
   }
 
+  /**
+   * Run the commands of a script file. The script is first turned into a dependency graph, and
+   * only the lines whose images end up saved, shown in the GUI or used by a line the graph does
+   * not understand are run. Lines that do not share any image name or file run concurrently.
+   * An image is released as soon as its last reader has run, unless it was saved or is shown in
+   * the GUI; saved images stay available after the script. Consecutive lines applying brighten,
+   * greyscale, flips or other pixel operations, each to the result of the previous one, run as a
+   * single pass when the intermediate results are not used by any later line of the script.
+   * Such intermediate results are not stored.
+   *
+   * @param file path of the script
+   * @throws IOException if the file cannot be read
+   */
   protected void executeFile(String file) throws IOException {
     Scanner sc = new Scanner(new FileInputStream(file));
-    // read the file line by line, and populate a string. This will throw away any comment lines
-    try {
-      while (sc.hasNextLine()) {
-        String s = sc.nextLine();
-        if (s.length() > 0) {
-          if (s.charAt(0) != '#') {
-            Scanner scanner = new Scanner(s);
+    // read the file line by line, and populate a list. This will throw away any comment lines
+    List<String> lines = new ArrayList<>();
+    while (sc.hasNextLine()) {
+      String s = sc.nextLine();
+      if (s.length() > 0 && s.charAt(0) != '#') {
+        lines.add(s);
+      }
+    }
+    List<String[][]> flows = new ArrayList<>();
+    for (String line : lines) {
+      String[] tokens = tokenize(line);
+      flows.add(tokens.length == 0 ? null : this.imageFlow(tokens));
+    }
+    ScriptGraph graph = new ScriptGraph(flows, VIEW_IMAGE);
+    List<String> liveLines = new ArrayList<>();
+    List<String[][]> liveFlows = new ArrayList<>();
+    List<List<String>> released = new ArrayList<>();
+    for (int i = 0; i < lines.size(); i++) {
+      if (graph.isLive(i)) {
+        liveLines.add(lines.get(i));
+        liveFlows.add(flows.get(i));
+        released.add(graph.releasedAfter(i));
+      }
+    }
+    ScriptScheduler scheduler = new ScriptScheduler();
+    int i = 0;
+    while (i < liveLines.size()) {
+      FusedCommand.Builder chain = new FusedCommand.Builder();
+      int end = Math.max(this.pointwiseChainEnd(liveLines, liveFlows, i, chain), i + 1);
+      List<String> stepLines = liveLines.subList(i, end);
+      FusedCommand fused = end - i > 1 ? chain.build() : null;
+      Set<String> reads = new HashSet<>();
+      Set<String> writes = new HashSet<>();
+      List<String> release = new ArrayList<>();
+      boolean barrier = false;
+      for (int j = i; j < end; j++) {
+        String[][] flow = liveFlows.get(j);
+        if (flow == null) {
+          barrier = true;
+        } else {
+          reads.addAll(Arrays.asList(flow[0]));
+          writes.addAll(Arrays.asList(flow[1]));
+          // files are resources too, a space keeps them apart from image names
+          String[] tokens = tokenize(liveLines.get(j));
+          if (tokens[0].equals("load")) {
+            reads.add("file " + tokens[1]);
+          } else if (tokens[0].equals("save")) {
+            writes.add("file " + tokens[tokens.length - 2]);
+          }
+        }
+        release.addAll(released.get(j));
+      }
+      writes.addAll(release);
+      scheduler.add(reads, writes, barrier, () -> {
+        if (fused == null || !this.runPointwiseChain(stepLines, fused)) {
+          for (String line : stepLines) {
+            Scanner scanner = new Scanner(line);
             String command = scanner.next();
             this.processCommand(command, scanner, imageCollection);
           }
         }
-      }
+        for (String name : release) {
+          this.imageCollection.removeImage(name);
+        }
+      });
+      i = end;
+    }
+    try {
+      scheduler.run(RowBandScheduler.getExecutor(), RowBandScheduler.getParallelism() > 1);
     } catch (Exception e) {
       writeMessage("Error: " + e.getMessage() + System.lineSeparator());
     }
   }
 
-  protected void writeMessage(String message) throws IllegalStateException {
+  /**
+   * Return the names of the images a script line reads and writes.
+   *
+   * @param tokens tokens of the line, starting with the instruction
+   * @return the names read followed by the names written, or null if the line may read or
+   *         write any image
+   */
+  protected String[][] imageFlow(String[] tokens) {
+    switch (tokens[0]) {
+      case "load":
+        return tokens.length == 3 ? new String[][]{{}, {tokens[2]}} : null;
+      case "save":
+        if (tokens.length == 4 && tokens[1].equals("-binary")) {
+          return new String[][]{{tokens[3]}, {}};
+        }
+        return tokens.length == 3 ? new String[][]{{tokens[2]}, {}} : null;
+      case "brighten":
+      case "greyscale":
+        return tokens.length == 4 ? new String[][]{{tokens[2]}, {tokens[3]}} : null;
+      case "horizontal-flip":
+      case "vertical-flip":
+      case "rotate-clockwise":
+      case "rotate-counterclockwise":
+        return tokens.length == 3 ? new String[][]{{tokens[1]}, {tokens[2]}} : null;
+      case "rgb-split":
+        return tokens.length == 5
+               ? new String[][]{{tokens[1]}, {tokens[2], tokens[3], tokens[4]}} : null;
+      case "rgb-combine":
+        return tokens.length == 5
+               ? new String[][]{{tokens[2], tokens[3], tokens[4]}, {tokens[1]}} : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Add the pixel operation of a script line to a chain.
+   *
+   * @param tokens  tokens of the line, starting with the instruction
+   * @param builder the chain
+   * @return true if the line is a pixel operation and was added, false otherwise
+   */
+  protected boolean addPointwiseStep(String[] tokens, FusedCommand.Builder builder) {
+    try {
+      switch (tokens[0]) {
+        case "brighten":
+          if (tokens.length == 4) {
+            builder.brighten(Integer.parseInt(tokens[1]));
+            return true;
+          }
+          return false;
+        case "horizontal-flip":
+          if (tokens.length == 3) {
+            builder.horizontalFlip();
+            return true;
+          }
+          return false;
+        case "vertical-flip":
+          if (tokens.length == 3) {
+            builder.verticalFlip();
+            return true;
+          }
+          return false;
+        case "greyscale":
+          if (tokens.length == 4) {
+            builder.greyScale(tokens[1]);
+            return true;
+          }
+          return false;
+        default:
+          return false;
+      }
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Add the pixel operations of the lines from a start line to a chain, while each line reads
+   * the image written by the one before it and that image is needed by nothing else: not by the
+   * GUI, not by a later line reading it, and not by a later line whose images are not known.
+   *
+   * @return index of the line after the chain
+   */
+  private int pointwiseChainEnd(List<String> lines, List<String[][]> flows, int start,
+                                FusedCommand.Builder builder) {
+    int end = start;
+    String previousDest = null;
+    while (end < lines.size()) {
+      String[] tokens = tokenize(lines.get(end));
+      if (tokens.length < 3) {
+        break;
+      }
+      if (previousDest != null && (!tokens[tokens.length - 2].equals(previousDest)
+                                   || isNeededAfter(flows, end + 1, previousDest))) {
+        break;
+      }
+      if (!this.addPointwiseStep(tokens, builder)) {
+        break;
+      }
+      previousDest = tokens[tokens.length - 1];
+      end++;
+    }
+    return end;
+  }
+
+  private boolean runPointwiseChain(List<String> chain, FusedCommand command) {
+    String[] first = tokenize(chain.get(0));
+    String[] last = tokenize(chain.get(chain.size() - 1));
+    Image img = this.imageCollection.returnImage(first[first.length - 2]);
+    if (!(img instanceof ImageExt)) {
+      return false;
+    }
+    this.imageCollection.storeImage(last[last.length - 1], ((ImageExt) img).runCommand(command));
+    return true;
+  }
+
+  private static boolean isNeededAfter(List<String[][]> flows, int start, String name) {
+    if (name.equals(VIEW_IMAGE)) {
+      return true;
+    }
+    for (int i = start; i < flows.size(); i++) {
+      if (flows.get(i) == null || Arrays.asList(flows.get(i)[0]).contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String[] tokenize(String line) {
+    String trimmed = line.trim();
+    return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+  }
+
+  protected synchronized void writeMessage(String message) throws IllegalStateException {
     try {
       appendable.append(message);
 
@@ -219,9 +459,13 @@ public class ImageController implements ApplicationController {
                  + System.lineSeparator());
     writeMessage("horizontal-flip src-object-name dest-object-name"
                  + System.lineSeparator());
+    writeMessage("rotate-clockwise src-object-name dest-object-name"
+                 + System.lineSeparator());
+    writeMessage("rotate-counterclockwise src-object-name dest-object-name"
+                 + System.lineSeparator());
     writeMessage("greyscale value/red/green/blue/intensity/luma-component " +
                  "src-object-name dest-object-name" + System.lineSeparator());
-    writeMessage("save file-path object-name"
+    writeMessage("save [-binary] file-path object-name(-binary saves .ppm files as P6)"
                  + System.lineSeparator());
     writeMessage("rgb-split src-object-name object-name-red object-name-green object-name-blue"
                  + System.lineSeparator());
@@ -229,6 +473,8 @@ public class ImageController implements ApplicationController {
                  + System.lineSeparator());
     writeMessage("run file-path"
                  + System.lineSeparator());
+    writeMessage("cache-stats (Print hits and misses of the result cache)"
+                 + System.lineSeparator());
     writeMessage("menu (Print supported instruction list)" + System.lineSeparator());
     writeMessage("q or quit (quit the program) " + System.lineSeparator());
   }
@@ -242,58 +488,84 @@ public class ImageController implements ApplicationController {
     writeMessage("Thank you for using this program!");
   }
 
-  protected StringBuilder loadImage(String filename) throws IOException {
-    Scanner sc = null;
-    StringBuilder k = null;
+  /**
+   * Load an image from a PPM, PGM or PBM file, plain or binary.
+   *
+   * @param filename path of the file
+   * @return the image
+   * @throws IOException              if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a valid PNM file
+   */
+  protected Image loadImage(String filename) throws IOException, IllegalArgumentException {
     try {
-      sc = new Scanner(new FileInputStream(filename));
-      StringBuilder builder = new StringBuilder();
-      //read the file line by line, and populate a string. This will throw away any comment lines
-      while (Objects.requireNonNull(sc).hasNextLine()) {
-        String s = sc.nextLine();
-        if (s.charAt(0) != '#') {
-          builder.append(s).append(System.lineSeparator());
-        }
-      }
-      //now set up the scanner to read from the string we just built
-      sc = new Scanner(builder.toString());
-      k = new StringBuilder();
-      String token;
-      token = sc.next();
-      if (!token.equals("P3")) {
-        throw new IllegalArgumentException("Invalid PPM file: plain RAW file should begin with P3");
-      }
-      int width = sc.nextInt();
-      k.append(width).append(System.lineSeparator());
-      int height = sc.nextInt();
-      k.append(height).append(System.lineSeparator());
-      int maxVal = sc.nextInt();
-      k.append(maxVal).append(System.lineSeparator());
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int r = sc.nextInt();
-          k.append(r).append(System.lineSeparator());
-          int g = sc.nextInt();
-          k.append(g).append(System.lineSeparator());
-          int b = sc.nextInt();
-          k.append(b).append(System.lineSeparator());
-          if ((r > 255 || b > 255 || g > 255) || (r < 0 || b < 0 || g < 0)) {
-            throw new IllegalStateException("Invalid pixel value passed in the file.");
-          }
-        }
-      }
+      return PnmReader.read(filename);
     } catch (IOException e) {
       writeMessage("Error: " + e.getMessage() + System.lineSeparator());
     }
-    return k;
+    throw new IllegalArgumentException("Invalid Image passed in input.");
+  }
+
+  /**
+   * Return the binary format a file is saved in, from the extension of its path.
+   *
+   * @param filePath path of the file
+   * @return pgm, pbm, or pnm for the smallest binary format that holds the image, or null for
+   *         any other extension
+   */
+  protected static String binaryFormat(String filePath) {
+    for (String format : new String[]{"pnm", "pgm", "pbm"}) {
+      if (filePath.endsWith("." + format)) {
+        return format;
+      }
+    }
+    return null;
   }
 
+  /**
+   * Save an image to a PNM file, as plain PPM (P3) unless the path asks for a binary format.
+   *
+   * @param img      the image
+   * @param filePath path of the file
+   * @throws IOException              if the file cannot be written
+   * @throws IllegalArgumentException if the format of the path does not hold the image
+   */
   protected void saveFile(Image img, String filePath) throws IOException {
-    OutputStream os = new FileOutputStream(filePath);
-    OutputStreamWriter writer = new OutputStreamWriter(os);
+    this.saveFile(img, filePath, false);
+  }
 
-    writer.write("P3\n");
-    writer.write(img.encodeImage().toString());
-    writer.close();
+  /**
+   * Save an image to a PNM file. Paths ending with .pgm and .pbm are saved as binary PGM (P5) and
+   * PBM (P4), paths ending with .pnm in the smallest of those formats and binary PPM (P6) that
+   * holds the image, and any other path as plain PPM (P3), or as binary PPM (P6) if asked for.
+   * The image is written to a temporary file beside the target, which replaces the target only
+   * once it is complete, so a format that does not hold the image or a failed write leaves any
+   * existing file untouched.
+   *
+   * @param img      the image
+   * @param filePath path of the file
+   * @param binary   true to save paths without a binary extension, like .ppm, as P6
+   * @throws IOException              if the file cannot be written
+   * @throws IllegalArgumentException if the format of the path does not hold the image
+   */
+  protected void saveFile(Image img, String filePath, boolean binary) throws IOException {
+    String format = binaryFormat(filePath);
+    if (format == null && binary) {
+      format = "ppm";
+    }
+    // created with the usual permissions of a new file, unlike Files.createTempFile
+    Path target = Paths.get(filePath).toAbsolutePath();
+    Path temp = File.createTempFile(".save-", ".tmp", target.getParent().toFile()).toPath();
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        if (format != null) {
+          img.writeBinary(channel, format);
+        } else {
+          img.writePlain(channel);
+        }
+      }
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
   }
 }
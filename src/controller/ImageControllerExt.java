@@ -1,6 +1,5 @@
 package controller;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -15,12 +14,17 @@ import javax.imageio.ImageIO;
 
 import model.ColorTransform;
 import model.Command;
+import model.ErrorDiffusion;
+import model.FusedCommand;
 import model.Image;
 import model.ImageBlur;
 import model.ImageCollection;
 import model.ImageDither;
+import model.ImageImpl;
 import model.ImageImplExt;
 import model.ImageSharpen;
+import model.OrderedDither;
+import model.PixelOperation;
 
 /**
  * This class represents an extension for the image controller application to support additional
@@ -52,6 +56,12 @@ public class ImageControllerExt extends ImageController {
     sepiaMat.add(new ArrayList<>(Arrays.asList(0.272, 0.534, 0.131)));
     functionMap.put("sepia", new ColorTransform(sepiaMat));
     functionMap.put("dither", new ImageDither());
+    functionMap.put("serpentine-dither", ErrorDiffusion.floydSteinberg(true));
+    functionMap.put("atkinson-dither", ErrorDiffusion.atkinson());
+    functionMap.put("jjn-dither", ErrorDiffusion.jarvisJudiceNinke());
+    functionMap.put("stucki-dither", ErrorDiffusion.stucki());
+    functionMap.put("bayer-dither", new OrderedDither(8));
+    functionMap.put("blue-noise-dither", OrderedDither.blueNoise());
 
   }
 
@@ -74,44 +84,51 @@ public class ImageControllerExt extends ImageController {
     }
   }
 
-  protected StringBuilder loadImage(String filename) {
-    BufferedImage img;
-    StringBuilder builder = null;
+  @Override
+  protected String[][] imageFlow(String[] tokens) {
+    if (functionMap.get(tokens[0]) != null) {
+      return tokens.length == 3 ? new String[][]{{tokens[1]}, {tokens[2]}} : null;
+    }
+    return super.imageFlow(tokens);
+  }
+
+  @Override
+  protected boolean addPointwiseStep(String[] tokens, FusedCommand.Builder builder) {
+    Command command = functionMap.get(tokens[0]);
+    if (command instanceof PixelOperation) {
+      if (tokens.length != 3) {
+        return false;
+      }
+      builder.pixelOperation((PixelOperation) command);
+      return true;
+    }
+    return super.addPointwiseStep(tokens, builder);
+  }
+
+  @Override
+  protected Image loadImage(String filename) throws IllegalArgumentException {
+    BufferedImage img = null;
     try {
-      if (filename.contains("ppm")) {
+      if (filename.contains("ppm") || binaryFormat(filename) != null) {
         return super.loadImage(filename);
-      } else {
-        img = ImageIO.read(new File(filename));
-        builder = new StringBuilder();
-        builder.append(img.getWidth()).append(System.lineSeparator());
-        builder.append(img.getHeight()).append(System.lineSeparator());
-        builder.append(255).append(System.lineSeparator());
-        for (int y = 0; y < img.getHeight(); y++) {
-          for (int x = 0; x < img.getWidth(); x++) {
-            //Retrieving contents of a pixel
-            int pixel = img.getRGB(x, y);
-            //Creating a Color object from pixel value
-            Color color = new Color(pixel, true);
-            //Retrieving the R G B values
-            int red = color.getRed();
-            int green = color.getGreen();
-            int blue = color.getBlue();
-            builder.append(red).append(System.lineSeparator());
-            builder.append(green).append(System.lineSeparator());
-            builder.append(blue).append(System.lineSeparator());
-          }
-        }
       }
+      img = ImageIO.read(new File(filename));
     } catch (IOException e) {
       writeMessage("Error: " + e.getMessage() + System.lineSeparator());
     }
-    return builder;
+    if (img == null) {
+      throw new IllegalArgumentException("Invalid Image passed in input.");
+    }
+    return new ImageImpl.ImageBuilder().loadBufferedImage(img);
   }
 
-  protected void saveFile(Image img, String filePath) {
+  @Override
+  protected void saveFile(Image img, String filePath, boolean binary) {
     try {
-      if (filePath.contains("ppm")) {
-        super.saveFile(img, filePath);
+      if (filePath.contains("ppm") || binaryFormat(filePath) != null) {
+        super.saveFile(img, filePath, binary);
+      } else if (binary) {
+        throw new IllegalArgumentException("-binary is only supported for PNM files");
       } else {
         BufferedImage bufferedImage = img.getBufferedImage();
         String[] fileName = filePath.split("\\.");
@@ -133,9 +150,13 @@ public class ImageControllerExt extends ImageController {
                  + System.lineSeparator());
     writeMessage("horizontal-flip src-object-name dest-object-name"
                  + System.lineSeparator());
+    writeMessage("rotate-clockwise src-object-name dest-object-name"
+                 + System.lineSeparator());
+    writeMessage("rotate-counterclockwise src-object-name dest-object-name"
+                 + System.lineSeparator());
     writeMessage("greyscale value/red/green/blue/intensity/luma-component " +
                  "src-object-name dest-object-name" + System.lineSeparator());
-    writeMessage("save file-path object-name"
+    writeMessage("save [-binary] file-path object-name(-binary saves .ppm files as P6)"
                  + System.lineSeparator());
     writeMessage("rgb-split src-object-name object-name-red object-name-green object-name-blue"
                  + System.lineSeparator());
@@ -151,8 +172,22 @@ public class ImageControllerExt extends ImageController {
                  + System.lineSeparator());
     writeMessage("dither src-obj-name dest-obj-name"
                  + System.lineSeparator());
+    writeMessage("serpentine-dither src-obj-name dest-obj-name"
+                 + System.lineSeparator());
+    writeMessage("atkinson-dither src-obj-name dest-obj-name"
+                 + System.lineSeparator());
+    writeMessage("jjn-dither src-obj-name dest-obj-name"
+                 + System.lineSeparator());
+    writeMessage("stucki-dither src-obj-name dest-obj-name"
+                 + System.lineSeparator());
+    writeMessage("bayer-dither src-obj-name dest-obj-name"
+                 + System.lineSeparator());
+    writeMessage("blue-noise-dither src-obj-name dest-obj-name"
+                 + System.lineSeparator());
     writeMessage("run file-path"
                  + System.lineSeparator());
+    writeMessage("cache-stats (Print hits and misses of the result cache)"
+                 + System.lineSeparator());
     writeMessage("menu (Print supported instruction list)" + System.lineSeparator());
     writeMessage("q or quit (quit the program) " + System.lineSeparator());
   }
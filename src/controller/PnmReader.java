@@ -0,0 +1,299 @@
+package controller;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import model.Image;
+import model.ImageImpl;
+
+/**
+ * This class reads images in the PNM formats: PPM colour images, plain (P3) or binary (P6), PGM
+ * greyscale images, plain (P2) or binary (P5), and PBM black and white images, plain (P1) or
+ * binary (P4), told apart by the magic number at the start of the file. The file is read through
+ * a fixed buffer of bytes and every sample is decoded straight into the pixels of the image in a
+ * single pass, so no text of the file is ever built. Comments start at a '#' anywhere outside a
+ * number and run to the end of the line. Large binary rasters are memory mapped and copied out
+ * in bulk. PGM and PBM files give greyscale images, which store a single level per pixel.
+ * Samples are stored in 8 bits, so files with a maximum value above 255 are rejected.
+ */
+class PnmReader {
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final int MAP_THRESHOLD = 1 << 20;
+  private static final int MAP_BAND_BYTES = 1 << 26;
+  private static final int MAX_VALUE = 255;
+  private static final int BITMAP_MAX_VALUE = 255;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private final byte[] bytes = this.buffer.array();
+  private int position;
+  private int limit;
+
+  private PnmReader(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Read the image stored in a file.
+   *
+   * @param filename path of the file
+   * @return the image
+   * @throws IOException              if the file cannot be read
+   * @throws IllegalArgumentException if the file is not a valid PNM file
+   */
+  static Image read(String filename) throws IOException, IllegalArgumentException {
+    try (FileInputStream in = new FileInputStream(filename)) {
+      return new PnmReader(in.getChannel()).readImage();
+    }
+  }
+
+  private Image readImage() throws IOException {
+    int magic = this.read() == 'P' ? this.read() : -1;
+    if (magic < '1' || magic > '6' || !this.atSeparator()) {
+      throw new IllegalArgumentException("Invalid PNM file: file should begin with P1 to P6");
+    }
+    boolean bitmap = magic == '1' || magic == '4';
+    boolean colour = magic == '3' || magic == '6';
+    int width = this.nextNumber();
+    int height = this.nextNumber();
+    int maxVal = bitmap ? BITMAP_MAX_VALUE : this.nextNumber();
+    if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Invalid PNM file: unsupported image size.");
+    }
+    if (maxVal <= 0 || maxVal > MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid PNM file: maximum value must be between 1 and "
+              + MAX_VALUE + ", 16-bit samples are not supported.");
+    }
+    if (colour) {
+      int[] pixels = new int[width * height];
+      if (magic == '6') {
+        this.readRaster(3L * width, height, (chunk, count, row) ->
+                unpackPixels(chunk, count, pixels, row * width, maxVal));
+      } else {
+        for (int i = 0; i < pixels.length; i++) {
+          int r = this.nextSample(maxVal);
+          int g = this.nextSample(maxVal);
+          int b = this.nextSample(maxVal);
+          pixels[i] = (r << 16) | (g << 8) | b;
+        }
+      }
+      return new ImageImpl.ImageBuilder().loadPixels(width, height, maxVal, pixels);
+    }
+    byte[] levels = new byte[width * height];
+    if (magic == '5') {
+      this.readRaster(width, height, (chunk, count, row) ->
+              unpackLevels(chunk, count, levels, row * width, maxVal));
+    } else if (magic == '4') {
+      this.readRaster((width + 7) / 8, height, (chunk, count, row) ->
+              unpackBits(chunk, count, levels, row, width));
+    } else {
+      for (int i = 0; i < levels.length; i++) {
+        levels[i] = (byte) (magic == '2' ? this.nextSample(maxVal) : this.nextBit());
+      }
+    }
+    return new ImageImpl.ImageBuilder().loadLevels(width, height, maxVal, levels);
+  }
+
+  /**
+   * This interface represents the decoding of a chunk of whole rows of a binary raster.
+   */
+  private interface ChunkDecoder {
+    void decode(byte[] chunk, int count, int firstRow);
+  }
+
+  /**
+   * Read the raster of a binary file, which starts after the single whitespace byte following the
+   * header, and decode it a chunk of rows at a time.
+   *
+   * @param rowBytes bytes of a row of the raster
+   * @param height   number of rows
+   * @param decoder  decoder of the chunks
+   */
+  private void readRaster(long rowBytes, int height, ChunkDecoder decoder) throws IOException {
+    int separator = this.read();
+    if (separator != ' ' && separator != '\n' && separator != '\r' && separator != '\t') {
+      throw new IllegalArgumentException("Invalid PNM file: expected a whitespace before the "
+              + "raster.");
+    }
+    if (rowBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid PNM file: unsupported image size.");
+    }
+    int chunkRows = (int) Math.min(height, Math.max(1, BUFFER_SIZE / rowBytes));
+    byte[] chunk = new byte[(int) (chunkRows * rowBytes)];
+    long length = rowBytes * height;
+    long offset = this.channel.position() - (this.limit - this.position);
+    boolean mapped = length >= MAP_THRESHOLD;
+    if (mapped && this.channel.size() - offset < length) {
+      throw new IllegalArgumentException("Invalid PNM file: file ends too early.");
+    }
+    // bands of the mapping hold a whole number of chunks, so a chunk never spans two of them
+    long bandBytes = (long) chunk.length * Math.max(1, MAP_BAND_BYTES / chunk.length);
+    MappedByteBuffer band = null;
+    for (int row = 0; row < height; row += chunkRows) {
+      int count = (int) (Math.min(chunkRows, height - row) * rowBytes);
+      if (mapped) {
+        if (band == null || !band.hasRemaining()) {
+          long start = row * rowBytes;
+          band = this.channel.map(FileChannel.MapMode.READ_ONLY, offset + start,
+                  Math.min(bandBytes, length - start));
+        }
+        band.get(chunk, 0, count);
+      } else {
+        this.readFully(chunk, count);
+      }
+      decoder.decode(chunk, count, row);
+    }
+  }
+
+  private static void unpackPixels(byte[] chunk, int count, int[] pixels, int start,
+                                   int limit) {
+    int k = 0;
+    for (int i = start; k < count; i++) {
+      int r = chunk[k] & 0xFF;
+      int g = chunk[k + 1] & 0xFF;
+      int b = chunk[k + 2] & 0xFF;
+      k += 3;
+      if (r > limit || g > limit || b > limit) {
+        throw new IllegalArgumentException("Invalid pixel value passed in the file.");
+      }
+      pixels[i] = (r << 16) | (g << 8) | b;
+    }
+  }
+
+  private static void unpackLevels(byte[] chunk, int count, byte[] levels, int start,
+                                   int limit) {
+    for (int k = 0; k < count; k++) {
+      int level = chunk[k] & 0xFF;
+      if (level > limit) {
+        throw new IllegalArgumentException("Invalid pixel value passed in the file.");
+      }
+      levels[start + k] = (byte) level;
+    }
+  }
+
+  /**
+   * Unpack rows of bits, eight pixels a byte with the first pixel in the most significant bit.
+   * Every row starts on a new byte, and set bits are black.
+   */
+  private static void unpackBits(byte[] chunk, int count, byte[] levels, int firstRow,
+                                 int width) {
+    int rowBytes = (width + 7) / 8;
+    for (int k = 0; k < count; k += rowBytes) {
+      int start = (firstRow + k / rowBytes) * width;
+      for (int x = 0; x < width; x++) {
+        int bit = (chunk[k + (x >> 3)] >> (7 - (x & 7))) & 1;
+        levels[start + x] = (byte) (bit == 0 ? BITMAP_MAX_VALUE : 0);
+      }
+    }
+  }
+
+  private void readFully(byte[] dest, int count) throws IOException {
+    int filled = 0;
+    while (filled < count) {
+      if (this.position == this.limit && this.read() >= 0) {
+        this.position--;
+      }
+      int available = Math.min(this.limit - this.position, count - filled);
+      if (available <= 0) {
+        throw new IllegalArgumentException("Invalid PNM file: file ends too early.");
+      }
+      System.arraycopy(this.bytes, this.position, dest, filled, available);
+      this.position += available;
+      filled += available;
+    }
+  }
+
+  private int nextSample(int limit) throws IOException {
+    int value = this.nextNumber();
+    if (value > limit) {
+      throw new IllegalArgumentException("Invalid pixel value passed in the file.");
+    }
+    return value;
+  }
+
+  /**
+   * Read the next pixel of a plain PBM file, a single 0 or 1 that need not be separated from
+   * the next one, and return its level.
+   */
+  private int nextBit() throws IOException {
+    int c = this.skipSeparators();
+    if (c != '0' && c != '1') {
+      throw new IllegalArgumentException(c == -1 ? "Invalid PNM file: file ends too early."
+              : "Invalid PNM file: expected a 0 or 1.");
+    }
+    return c == '0' ? BITMAP_MAX_VALUE : 0;
+  }
+
+  /**
+   * Read the next unsigned decimal number, skipping the whitespace and comments before it.
+   */
+  private int nextNumber() throws IOException {
+    int c = this.skipSeparators();
+    if (c < '0' || c > '9') {
+      throw new IllegalArgumentException(c == -1 ? "Invalid PNM file: file ends too early."
+              : "Invalid PNM file: expected a number.");
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      if (value > (Integer.MAX_VALUE - 9) / 10) {
+        throw new IllegalArgumentException("Invalid PNM file: number is too large.");
+      }
+      value = value * 10 + (c - '0');
+      c = this.read();
+    }
+    if (c != -1) {
+      this.position--;
+      if (!this.atSeparator()) {
+        throw new IllegalArgumentException("Invalid PNM file: expected a number.");
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Skip whitespace and comments, and return the byte after them.
+   */
+  private int skipSeparators() throws IOException {
+    int c = this.read();
+    while (c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '#' || c == 0x0B
+           || c == '\f') {
+      if (c == '#') {
+        while (c != '\n' && c != '\r' && c != -1) {
+          c = this.read();
+        }
+      }
+      c = this.read();
+    }
+    return c;
+  }
+
+  /**
+   * Return true if the next byte ends a token, without consuming it.
+   */
+  private boolean atSeparator() throws IOException {
+    int c = this.read();
+    if (c == -1) {
+      return true;
+    }
+    this.position--;
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '#' || c == 0x0B || c == '\f';
+  }
+
+  private int read() throws IOException {
+    if (this.position == this.limit) {
+      this.buffer.clear();
+      int count = this.channel.read(this.buffer);
+      while (count == 0) {
+        count = this.channel.read(this.buffer);
+      }
+      if (count < 0) {
+        return -1;
+      }
+      this.position = 0;
+      this.limit = count;
+    }
+    return this.bytes[this.position++] & 0xFF;
+  }
+}
@@ -0,0 +1,120 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents the dependency graph of the lines of a script. Every line reads and
+ * writes images by name; a line is live when one of the images it writes is needed by a later
+ * live line, or when it writes the image shown by the GUI. Lines writing no image, like save,
+ * are always live. Lines whose images are not known, like run, are barriers: they are live and
+ * every line before them is live too. An image is released after its last reader, unless it was
+ * saved or is the image shown by the GUI: those are the results of the script and stay
+ * available once it has run. Images the script did not write itself belong to the session and
+ * are only released when the script overwrites them.
+ */
+class ScriptGraph {
+  private final boolean[] live;
+  private final List<List<String>> released;
+
+  /**
+   * Build the graph of a script.
+   *
+   * @param flows    for every line, the names it reads and the names it writes, or null if the
+   *                 line is a barrier
+   * @param sinkName name of an image that is always needed
+   */
+  ScriptGraph(List<String[][]> flows, String sinkName) {
+    int size = flows.size();
+    this.live = new boolean[size];
+    Set<String> needed = new HashSet<>();
+    boolean allNeeded = false;
+    for (int i = size - 1; i >= 0; i--) {
+      String[][] flow = flows.get(i);
+      if (flow == null) {
+        this.live[i] = true;
+        allNeeded = true;
+        continue;
+      }
+      List<String> writes = Arrays.asList(flow[1]);
+      this.live[i] = allNeeded || writes.isEmpty() || writes.contains(sinkName)
+                     || writes.stream().anyMatch(needed::contains);
+      if (this.live[i]) {
+        needed.removeAll(writes);
+        needed.addAll(Arrays.asList(flow[0]));
+      }
+    }
+    this.released = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      List<String> names = new ArrayList<>();
+      if (this.live[i] && flows.get(i) != null) {
+        for (String name : new LinkedHashSet<>(Arrays.asList(flows.get(i)[0]))) {
+          if (!name.equals(sinkName) && !Arrays.asList(flows.get(i)[1]).contains(name)
+              && this.releasable(flows, i, name)) {
+            names.add(name);
+          }
+        }
+      }
+      this.released.add(names);
+    }
+  }
+
+  /**
+   * Tell whether an image read by a line is no longer needed after it: either the next live line
+   * using its name overwrites it, or no later line reads it, a live line of the script wrote it
+   * and no line reading it since then saves it. Images the script only reads, like one loaded
+   * before it was run, are never released after their last reader.
+   */
+  private boolean releasable(List<String[][]> flows, int line, String name) {
+    for (int j = line + 1; j < flows.size(); j++) {
+      if (!this.live[j]) {
+        continue;
+      }
+      String[][] flow = flows.get(j);
+      if (flow == null || Arrays.asList(flow[0]).contains(name)) {
+        return false;
+      }
+      if (Arrays.asList(flow[1]).contains(name)) {
+        return true;
+      }
+    }
+    for (int j = line; j >= 0; j--) {
+      if (!this.live[j]) {
+        continue;
+      }
+      String[][] flow = flows.get(j);
+      if (flow == null || (flow[1].length == 0 && Arrays.asList(flow[0]).contains(name))) {
+        return false;
+      }
+      if (Arrays.asList(flow[1]).contains(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tell whether a line has to be run.
+   *
+   * @param line index of the line
+   * @return true if the line is live
+   */
+  boolean isLive(int line) {
+    return this.live[line];
+  }
+
+  /**
+   * Return the images that are no longer needed once a line has run, because the next live line
+   * using their name overwrites them or the line was their last reader.
+   *
+   * @param line index of the line
+   * @return names of the images that can be released
+   */
+  List<String> releasedAfter(int line) {
+    return this.released.get(line);
+  }
+}
@@ -0,0 +1,103 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a scheduler for the steps of a script. Each step declares the resources
+ * it reads and writes; a step waits for every earlier step it conflicts with, that is when one
+ * of them writes a resource the other reads or writes, and runs concurrently with all the others.
+ * Every resource therefore sees its reads and writes in script order. Barrier steps conflict with
+ * every other step.
+ *
+ * <p>Like a script run line by line, which stops at the first failing line, no step is started
+ * once a step has failed, whatever its place in the script; the steps already running are left
+ * to finish before the failure is reported.
+ */
+class ScriptScheduler {
+  private final List<Step> steps = new ArrayList<>();
+
+  /**
+   * Add a step after the steps added so far.
+   *
+   * @param reads   resources read by the step
+   * @param writes  resources written by the step
+   * @param barrier true if the step may read or write any resource
+   * @param action  the work of the step
+   */
+  void add(Set<String> reads, Set<String> writes, boolean barrier, Runnable action) {
+    this.steps.add(new Step(reads, writes, barrier, action));
+  }
+
+  /**
+   * Run all the steps. Once a step fails no other step is started, and the failure of the
+   * earliest failed step in script order is rethrown after the running steps have finished.
+   *
+   * @param executor executor running the steps
+   * @param parallel false to run the steps one after the other in script order
+   * @throws RuntimeException the exception thrown by the earliest failed step
+   */
+  void run(Executor executor, boolean parallel) throws RuntimeException {
+    if (!parallel) {
+      for (Step step : this.steps) {
+        step.action.run();
+      }
+      return;
+    }
+    RuntimeException[] failures = new RuntimeException[this.steps.size()];
+    AtomicInteger firstFailure = new AtomicInteger(this.steps.size());
+    List<CompletableFuture<Void>> finished = new ArrayList<>();
+    for (int later = 0; later < this.steps.size(); later++) {
+      int index = later;
+      Step step = this.steps.get(later);
+      List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+      for (int earlier = 0; earlier < later; earlier++) {
+        if (this.steps.get(earlier).conflictsWith(step)) {
+          dependencies.add(finished.get(earlier));
+        }
+      }
+      finished.add(CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+          .thenRunAsync(() -> {
+            // steps whose turn comes after a failure are skipped, even earlier ones
+            if (firstFailure.get() == failures.length) {
+              try {
+                step.action.run();
+              } catch (RuntimeException e) {
+                failures[index] = e;
+                firstFailure.accumulateAndGet(index, Math::min);
+              }
+            }
+          }, executor));
+    }
+    CompletableFuture.allOf(finished.toArray(new CompletableFuture<?>[0])).join();
+    if (firstFailure.get() < this.steps.size()) {
+      throw failures[firstFailure.get()];
+    }
+  }
+
+  private static class Step {
+    private final Set<String> reads;
+    private final Set<String> writes;
+    private final boolean barrier;
+    private final Runnable action;
+
+    private Step(Set<String> reads, Set<String> writes, boolean barrier, Runnable action) {
+      this.reads = reads;
+      this.writes = writes;
+      this.barrier = barrier;
+      this.action = action;
+    }
+
+    private boolean conflictsWith(Step other) {
+      return this.barrier || other.barrier
+             || !Collections.disjoint(this.writes, other.reads)
+             || !Collections.disjoint(this.writes, other.writes)
+             || !Collections.disjoint(this.reads, other.writes);
+    }
+  }
+}
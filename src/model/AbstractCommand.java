@@ -0,0 +1,14 @@
+package model;
+
+/**
+ * This class represents the common part of the commands that write their result into a
+ * destination pixel buffer. It allocates the buffer and wraps it into a new image.
+ */
+public abstract class AbstractCommand implements Command {
+  @Override
+  public Image executeMethod(Image image, int width, int height, int maxPixel) {
+    int[] dest = new int[width * height];
+    this.executeInto(ImageImpl.pixelData(image), dest, width, height, maxPixel);
+    return new ImageImplExt(width, height, maxPixel, dest);
+  }
+}
@@ -1,13 +1,16 @@
 package model;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * This class represents a color transform operation that can be applied on an image.
+ * This class represents a color transform operation that can be applied on an image. The matrix
+ * is compiled once into lookup tables holding the product of every matrix entry with every 8-bit
+ * channel value, so each output channel of a pixel costs three table lookups and two adds.
  */
-public class ColorTransform implements Command {
-  private List<List<Double>> colorMat = new ArrayList<>();
+public class ColorTransform extends AbstractCommand implements PixelOperation {
+  private static final int CHANNEL_VALUES = 256;
+  private final double[] products;
 
   /**
    * Initialise the matrix to transform the image.
@@ -15,33 +18,62 @@ public class ColorTransform implements Command {
    * @param mat matrix for color transform operation
    */
   public ColorTransform(List<List<Double>> mat) {
-    colorMat = mat;
+    // the tables hold the exact double products the matrix multiplication would compute, so
+    // the transformed pixels are the same as without the tables
+    products = new double[9 * CHANNEL_VALUES];
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        double entry = mat.get(i).get(j);
+        int table = (3 * i + j) * CHANNEL_VALUES;
+        for (int value = 0; value < CHANNEL_VALUES; value++) {
+          products[table + value] = entry * value;
+        }
+      }
+    }
   }
 
   @Override
-  public Image executeMethod(Image image, int width, int height, int maxPixel) {
-    StringBuilder builder = new StringBuilder();
-    builder.append(width).append(System.lineSeparator());
-    builder.append(height).append(System.lineSeparator());
-    builder.append(maxPixel).append(System.lineSeparator());
-    for (int col = 0; col < height; col++) {
-      for (int row = 0; row < width; row++) {
-        ImageImpl.Pixel pix = image.getPixels().get(col).get(row);
-        builder.append(convertRGB(colorMat.get(0), pix)).append(System.lineSeparator());
-        builder.append(convertRGB(colorMat.get(1), pix)).append(System.lineSeparator());
-        builder.append(convertRGB(colorMat.get(2), pix)).append(System.lineSeparator());
-      }
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ColorTransform)) {
+      return false;
     }
-    return new ImageImpl.ImageBuilder().loadFile(builder);
+    return Arrays.equals(this.products, ((ColorTransform) obj).products);
   }
 
-  private int convertRGB(List<Double> pixMultiplier, ImageImpl.Pixel pixel) {
-    int result = (int) ((pixMultiplier.get(0) * pixel.red) + (pixMultiplier.get(1) * pixel.green)
-                        + (pixMultiplier.get(2) * pixel.blue));
-    if (result < 0) {
-      return 0;
-    } else {
-      return Math.min(result, 255);
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(this.products);
+  }
+
+  @Override
+  public void executeInto(int[] src, int[] dest, int width, int height, int maxPixel) {
+    RowBandScheduler.forEachBand(height, width,
+        (startRow, endRow) -> this.transform(src, dest, startRow * width, endRow * width));
+  }
+
+  @Override
+  public void applyToRange(int[] pixels, int start, int end, int maxPixel) {
+    this.transform(pixels, pixels, start, end);
+  }
+
+  private void transform(int[] src, int[] dest, int start, int end) {
+    double[] table = this.products;
+    for (int i = start; i < end; i++) {
+      int pixel = src[i];
+      int red = (pixel >> 16) & 0xFF;
+      int green = ((pixel >> 8) & 0xFF) + CHANNEL_VALUES;
+      int blue = (pixel & 0xFF) + 2 * CHANNEL_VALUES;
+      dest[i] = ImageImpl.packPixel(convertRGB(table, 0, red, green, blue),
+              convertRGB(table, 3 * CHANNEL_VALUES, red, green, blue),
+              convertRGB(table, 6 * CHANNEL_VALUES, red, green, blue));
     }
   }
+
+  private static int convertRGB(double[] table, int row, int red, int green, int blue) {
+    int result = (int) (table[row + red] + table[row + green] + table[row + blue]);
+    return Math.min(Math.max(result, 0), 255);
+  }
 }
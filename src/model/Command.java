@@ -15,4 +15,18 @@ public interface Command {
    * @return transformed Image object
    */
   Image executeMethod(Image image, int width, int height, int maxPixel);
+
+  /**
+   * Apply the functionality encapsulated in the command object on packed 0x00RRGGBB pixels and
+   * write the result into a destination buffer. The source is left untouched and the same
+   * destination buffer can be passed again on later calls.
+   *
+   * @param src      packed pixels of the image, row by row
+   * @param dest     buffer of at least width * height ints that receives the result, must not be
+   *                 the source buffer
+   * @param width    width of image
+   * @param height   height of image
+   * @param maxPixel maximum allowed value of a pixel
+   */
+  void executeInto(int[] src, int[] dest, int width, int height, int maxPixel);
 }
@@ -0,0 +1,329 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a convolution of an image with a kernel of any odd width and height. The
+ * kernel is centred on every pixel and applied to the red, green and blue channels separately.
+ * Pixels whose whole window lies inside the image go through a loop without any bounds checks,
+ * the remaining ones near the edges look up their neighbours according to a border mode. Kernels
+ * that are the outer product of a column and a row vector are detected and applied as a
+ * horizontal pass followed by a vertical pass, which costs width + height multiplications per
+ * pixel instead of width * height.
+ */
+public class ConvolutionCommand extends AbstractCommand {
+  private final double[] kernel;
+  private final int kernelWidth;
+  private final int kernelHeight;
+  private final BorderMode borderMode;
+  private final double[] rowKernel;
+  private final double[] columnKernel;
+
+  /**
+   * Initialise the kernel of the convolution.
+   *
+   * @param kernel       kernel values, row by row
+   * @param kernelWidth  number of columns of the kernel, must be odd
+   * @param kernelHeight number of rows of the kernel, must be odd
+   * @param borderMode   how pixels outside the image are treated
+   * @throws IllegalArgumentException if the kernel dimensions are invalid
+   */
+  public ConvolutionCommand(double[] kernel, int kernelWidth, int kernelHeight,
+                            BorderMode borderMode) throws IllegalArgumentException {
+    if (kernelWidth <= 0 || kernelHeight <= 0 || kernelWidth % 2 == 0 || kernelHeight % 2 == 0
+        || kernel.length != kernelWidth * kernelHeight) {
+      throw new IllegalArgumentException("Kernel must have odd width and height and "
+                                         + "width * height values.");
+    }
+    this.kernel = kernel.clone();
+    this.kernelWidth = kernelWidth;
+    this.kernelHeight = kernelHeight;
+    this.borderMode = borderMode;
+    int pivot = 0;
+    for (int k = 1; k < kernel.length; k++) {
+      if (Math.abs(kernel[k]) > Math.abs(kernel[pivot])) {
+        pivot = k;
+      }
+    }
+    double[] rowVector = new double[kernelWidth];
+    double[] columnVector = new double[kernelHeight];
+    boolean separable = kernel.length > 1 && kernel[pivot] != 0;
+    if (separable) {
+      int pivotRow = pivot / kernelWidth;
+      int pivotColumn = pivot % kernelWidth;
+      for (int j = 0; j < kernelWidth; j++) {
+        rowVector[j] = kernel[pivotRow * kernelWidth + j] / kernel[pivot];
+      }
+      for (int i = 0; i < kernelHeight; i++) {
+        columnVector[i] = kernel[i * kernelWidth + pivotColumn];
+      }
+      double tolerance = Math.abs(kernel[pivot]) * 1e-12;
+      for (int k = 0; k < kernel.length && separable; k++) {
+        double product = columnVector[k / kernelWidth] * rowVector[k % kernelWidth];
+        separable = Math.abs(product - kernel[k]) <= tolerance;
+      }
+    }
+    this.rowKernel = separable ? rowVector : null;
+    this.columnKernel = separable ? columnVector : null;
+  }
+
+  /**
+   * Tell whether the kernel is applied as two one-dimensional passes.
+   *
+   * @return true if the kernel is separable
+   */
+  public boolean isSeparable() {
+    return this.rowKernel != null;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || obj.getClass() != this.getClass()) {
+      return false;
+    }
+    ConvolutionCommand command = (ConvolutionCommand) obj;
+    return this.kernelWidth == command.kernelWidth && this.kernelHeight == command.kernelHeight
+           && this.borderMode == command.borderMode && Arrays.equals(this.kernel, command.kernel);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = 31 * this.kernelWidth + this.kernelHeight;
+    result = 31 * result + this.borderMode.hashCode();
+    return 31 * result + Arrays.hashCode(this.kernel);
+  }
+
+  @Override
+  public void executeInto(int[] src, int[] dest, int width, int height, int maxPixel) {
+    RowBandScheduler.forEachBand(height, width,
+        (startRow, endRow) -> this.convolveRows(src, dest, width, height, startRow, endRow));
+  }
+
+  /**
+   * Convolve the rows [startRow, endRow) of the image. Rows outside the range are only read.
+   *
+   * @param src      packed source pixels
+   * @param dest     packed destination pixels
+   * @param width    width of image
+   * @param height   height of image
+   * @param startRow first row to compute
+   * @param endRow   row after the last row to compute
+   */
+  protected void convolveRows(int[] src, int[] dest, int width, int height,
+                              int startRow, int endRow) {
+    if (this.isSeparable()) {
+      this.convolveRowsSeparable(src, dest, width, height, startRow, endRow);
+      return;
+    }
+    int radiusX = this.kernelWidth / 2;
+    int radiusY = this.kernelHeight / 2;
+    int interiorStart = Math.min(radiusX, width);
+    int interiorEnd = Math.max(width - radiusX, interiorStart);
+    RowPlanes planes = new RowPlanes(this.kernelHeight, width);
+    double[] sums = new double[3 * width];
+    for (int col = startRow; col < endRow; col++) {
+      if (col < radiusY || col >= height - radiusY) {
+        for (int row = 0; row < width; row++) {
+          dest[col * width + row] = this.convolveBorder(src, width, height, row, col);
+        }
+        continue;
+      }
+      Arrays.fill(sums, 0);
+      for (int i = 0; i < this.kernelHeight; i++) {
+        double[] plane = planes.get(src, width, col + i - radiusY);
+        for (int j = 0; j < this.kernelWidth; j++) {
+          addScaled(sums, plane, width, interiorStart, interiorEnd, j - radiusX,
+                  this.kernel[i * this.kernelWidth + j]);
+        }
+      }
+      for (int row = 0; row < interiorStart; row++) {
+        dest[col * width + row] = this.convolveBorder(src, width, height, row, col);
+      }
+      packRow(sums, dest, col * width, width, interiorStart, interiorEnd);
+      for (int row = interiorEnd; row < width; row++) {
+        dest[col * width + row] = this.convolveBorder(src, width, height, row, col);
+      }
+    }
+  }
+
+  private int convolveBorder(int[] src, int width, int height, int row, int col) {
+    int radiusX = this.kernelWidth / 2;
+    int radiusY = this.kernelHeight / 2;
+    double red = 0;
+    double green = 0;
+    double blue = 0;
+    int k = 0;
+    for (int i = col - radiusY; i <= col + radiusY; i++) {
+      int y = this.borderMode.sampleIndex(i, height);
+      for (int j = row - radiusX; j <= row + radiusX; j++, k++) {
+        int x = this.borderMode.sampleIndex(j, width);
+        if (x >= 0 && y >= 0) {
+          int pixel = src[y * width + x];
+          double weight = this.kernel[k];
+          red += ((pixel >> 16) & 0xFF) * weight;
+          green += ((pixel >> 8) & 0xFF) * weight;
+          blue += (pixel & 0xFF) * weight;
+        }
+      }
+    }
+    return ImageImpl.packPixel(capChannel(red), capChannel(green), capChannel(blue));
+  }
+
+  private void convolveRowsSeparable(int[] src, int[] dest, int width, int height,
+                                     int startRow, int endRow) {
+    int radiusY = this.kernelHeight / 2;
+    // horizontally filtered source rows kept in a ring indexed by source row, so that every
+    // source row is filtered once for all the output rows using it
+    double[][] filteredRows = new double[this.kernelHeight][3 * width];
+    int[] cachedRow = new int[this.kernelHeight];
+    Arrays.fill(cachedRow, -1);
+    RowPlanes planes = new RowPlanes(1, width);
+    double[] sums = new double[3 * width];
+    for (int col = startRow; col < endRow; col++) {
+      Arrays.fill(sums, 0);
+      for (int i = 0; i < this.kernelHeight; i++) {
+        int y = this.borderMode.sampleIndex(col + i - radiusY, height);
+        if (y < 0) {
+          continue;
+        }
+        double[] filtered = filteredRows[y % this.kernelHeight];
+        if (cachedRow[y % this.kernelHeight] != y) {
+          this.filterRow(planes.get(src, width, y), width, filtered);
+          cachedRow[y % this.kernelHeight] = y;
+        }
+        addScaled(sums, filtered, 3 * width, 0, 3 * width, 0, this.columnKernel[i]);
+      }
+      packRow(sums, dest, col * width, width, 0, width);
+    }
+  }
+
+  private void filterRow(double[] plane, int width, double[] filtered) {
+    int radiusX = this.kernelWidth / 2;
+    int interiorStart = Math.min(radiusX, width);
+    int interiorEnd = Math.max(width - radiusX, interiorStart);
+    Arrays.fill(filtered, 0);
+    for (int j = 0; j < this.kernelWidth; j++) {
+      addScaled(filtered, plane, width, interiorStart, interiorEnd, j - radiusX,
+              this.rowKernel[j]);
+    }
+    for (int row = 0; row < interiorStart; row++) {
+      this.filterBorderColumn(plane, width, row, filtered);
+    }
+    for (int row = interiorEnd; row < width; row++) {
+      this.filterBorderColumn(plane, width, row, filtered);
+    }
+  }
+
+  private void filterBorderColumn(double[] plane, int width, int row, double[] filtered) {
+    int radiusX = this.kernelWidth / 2;
+    for (int j = 0; j < this.kernelWidth; j++) {
+      int x = this.borderMode.sampleIndex(row + j - radiusX, width);
+      if (x >= 0) {
+        double weight = this.rowKernel[j];
+        filtered[row] += plane[x] * weight;
+        filtered[width + row] += plane[width + x] * weight;
+        filtered[2 * width + row] += plane[2 * width + x] * weight;
+      }
+    }
+  }
+
+  // adds a weighted, shifted copy of every plane to the sums, the inner loop is a plain multiply
+  // and add over consecutive elements which the JIT compiles to vector instructions
+  private static void addScaled(double[] sums, double[] planes, int planeLength, int start,
+                                int end, int offset, double weight) {
+    for (int base = 0; base < sums.length; base += planeLength) {
+      for (int x = base + start; x < base + end; x++) {
+        sums[x] += planes[x + offset] * weight;
+      }
+    }
+  }
+
+  private static void packRow(double[] sums, int[] dest, int destStart, int width, int start,
+                              int end) {
+    for (int row = start; row < end; row++) {
+      dest[destStart + row] = ImageImpl.packPixel(capChannel(sums[row]),
+              capChannel(sums[width + row]), capChannel(sums[2 * width + row]));
+    }
+  }
+
+  private static int capChannel(double channel) {
+    return (int) Math.min(Math.max(channel, 0), 255);
+  }
+
+  /**
+   * This class holds source rows split into a red, a green and a blue plane of doubles, in a
+   * ring indexed by source row so that every row is split once while the kernel slides over it.
+   */
+  private static final class RowPlanes {
+    private final double[][] planes;
+    private final int[] cachedRow;
+
+    private RowPlanes(int rows, int width) {
+      this.planes = new double[rows][3 * width];
+      this.cachedRow = new int[rows];
+      Arrays.fill(this.cachedRow, -1);
+    }
+
+    private double[] get(int[] src, int width, int y) {
+      int slot = y % this.planes.length;
+      double[] plane = this.planes[slot];
+      if (this.cachedRow[slot] != y) {
+        for (int x = 0, i = y * width; x < width; x++, i++) {
+          int pixel = src[i];
+          plane[x] = (pixel >> 16) & 0xFF;
+          plane[width + x] = (pixel >> 8) & 0xFF;
+          plane[2 * width + x] = pixel & 0xFF;
+        }
+        this.cachedRow[slot] = y;
+      }
+      return plane;
+    }
+  }
+
+  /**
+   * This enum represents the ways a convolution can treat the pixels outside the image.
+   */
+  public enum BorderMode {
+    /**
+     * Pixels outside the image are black.
+     */
+    ZERO,
+    /**
+     * Pixels outside the image repeat the nearest edge pixel.
+     */
+    CLAMP,
+    /**
+     * Pixels outside the image mirror the image across its edge, without repeating the edge.
+     */
+    MIRROR;
+
+    /**
+     * Map a row or column index to the index of the pixel it samples.
+     *
+     * @param index  row or column index, possibly outside the image
+     * @param length number of rows or columns of the image
+     * @return index inside the image, or -1 if the sample is zero
+     */
+    int sampleIndex(int index, int length) {
+      if (index >= 0 && index < length) {
+        return index;
+      }
+      switch (this) {
+        case CLAMP:
+          return index < 0 ? 0 : length - 1;
+        case MIRROR:
+          if (length == 1) {
+            return 0;
+          }
+          int period = 2 * (length - 1);
+          int folded = Math.floorMod(index, period);
+          return folded < length ? folded : period - folded;
+        default:
+          return -1;
+      }
+    }
+  }
+}
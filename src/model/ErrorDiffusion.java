@@ -0,0 +1,322 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class represents an error diffusion dither command that converts the given image into a
+ * B/W image. Every pixel is set to black or white by its luma, and the difference is spread over
+ * the pixels ahead of it with the weights of a diffusion matrix. The first row of the matrix is
+ * the row of the pixel, starting at its column, and the other rows are the rows below it.
+ *
+ * <p>Only as many rows of luma as the matrix has rows are kept. Rows may be scanned in serpentine
+ * order, every other row from right to left with the matrix mirrored. Without serpentine scanning,
+ * with more than one thread and with the wavefront turned on, large images are dithered as a
+ * wavefront of tiles that gives the same output as the sequential scan. The wavefront is off by
+ * default; the model benchmark times both. White pixels get the max value of the image, clamped
+ * to 8 bits. The result is a {@link GreyImage}.
+ */
+public class ErrorDiffusion extends AbstractCommand {
+  private static final int TILE_ROWS = 32;
+  private static final int MIN_WAVEFRONT_PIXELS = 1 << 16;
+  private static volatile boolean wavefront = false;
+  private final int[] rowOffsets;
+  private final int[] columnOffsets;
+  private final double[] weights;
+  private final int kernelRows;
+  private final int skew;
+  private final boolean serpentine;
+
+  /**
+   * Initialise the dither with a diffusion matrix.
+   *
+   * @param matrix     weights of the matrix, row by row
+   * @param origin     column of the pixel in the first row, whose weight and the weights left of
+   *                   it must be 0
+   * @param divisor    divisor of all the weights
+   * @param serpentine true to scan every other row from right to left
+   * @throws IllegalArgumentException if the matrix is not a valid diffusion matrix
+   */
+  public ErrorDiffusion(int[][] matrix, int origin, int divisor, boolean serpentine)
+          throws IllegalArgumentException {
+    if (matrix.length == 0 || divisor <= 0 || origin < 0 || origin >= matrix[0].length) {
+      throw new IllegalArgumentException("Invalid diffusion matrix.");
+    }
+    for (int column = 0; column <= origin; column++) {
+      if (matrix[0][column] != 0) {
+        throw new IllegalArgumentException("Error can only be diffused to pixels ahead.");
+      }
+    }
+    int count = 0;
+    for (int[] row : matrix) {
+      if (row.length != matrix[0].length) {
+        throw new IllegalArgumentException("Rows of the diffusion matrix must have equal length.");
+      }
+      for (int weight : row) {
+        count += weight != 0 ? 1 : 0;
+      }
+    }
+    this.rowOffsets = new int[count];
+    this.columnOffsets = new int[count];
+    this.weights = new double[count];
+    int rightReach = 0;
+    int leftReach = 0;
+    int entry = 0;
+    for (int row = 0; row < matrix.length; row++) {
+      for (int column = 0; column < matrix[row].length; column++) {
+        if (matrix[row][column] != 0) {
+          this.rowOffsets[entry] = row;
+          this.columnOffsets[entry] = column - origin;
+          this.weights[entry] = (double) matrix[row][column] / divisor;
+          rightReach = Math.max(rightReach, column - origin);
+          leftReach = Math.max(leftReach, origin - column);
+          entry++;
+        }
+      }
+    }
+    this.kernelRows = matrix.length;
+    // a pixel may only pass error on once the row above is done up to the last pixel whose
+    // error reaches the same pixels, so the rows above always add their error first
+    this.skew = rightReach + leftReach + 1;
+    this.serpentine = serpentine;
+  }
+
+  /**
+   * Create the Floyd-Steinberg dither.
+   *
+   * @param serpentine true to scan every other row from right to left
+   * @return the dither command
+   */
+  public static ErrorDiffusion floydSteinberg(boolean serpentine) {
+    return new ErrorDiffusion(new int[][]{{0, 0, 7}, {3, 5, 1}}, 1, 16, serpentine);
+  }
+
+  /**
+   * Create the Atkinson dither, which diffuses only 3/4 of the error for more contrast.
+   *
+   * @return the dither command
+   */
+  public static ErrorDiffusion atkinson() {
+    return new ErrorDiffusion(new int[][]{{0, 0, 1, 1}, {1, 1, 1, 0}, {0, 1, 0, 0}}, 1, 8,
+            false);
+  }
+
+  /**
+   * Create the Jarvis, Judice and Ninke dither.
+   *
+   * @return the dither command
+   */
+  public static ErrorDiffusion jarvisJudiceNinke() {
+    return new ErrorDiffusion(new int[][]{{0, 0, 0, 7, 5}, {3, 5, 7, 5, 3}, {1, 3, 5, 3, 1}},
+            2, 48, false);
+  }
+
+  /**
+   * Create the Stucki dither.
+   *
+   * @return the dither command
+   */
+  public static ErrorDiffusion stucki() {
+    return new ErrorDiffusion(new int[][]{{0, 0, 0, 8, 4}, {2, 4, 8, 4, 2}, {1, 2, 4, 2, 1}},
+            2, 42, false);
+  }
+
+  /**
+   * Turn the wavefront of tiles on or off for the dithers without serpentine scanning. It only
+   * runs on large images with more than one thread, and gives the same output either way.
+   *
+   * @param enabled true to dither large images as a wavefront of tiles
+   */
+  public static void setWavefront(boolean enabled) {
+    wavefront = enabled;
+  }
+
+  /**
+   * Return whether large images are dithered as a wavefront of tiles.
+   *
+   * @return true if the wavefront is turned on
+   */
+  public static boolean isWavefront() {
+    return wavefront;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ErrorDiffusion)) {
+      return false;
+    }
+    ErrorDiffusion other = (ErrorDiffusion) obj;
+    return this.serpentine == other.serpentine
+           && Arrays.equals(this.rowOffsets, other.rowOffsets)
+           && Arrays.equals(this.columnOffsets, other.columnOffsets)
+           && Arrays.equals(this.weights, other.weights);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = Arrays.hashCode(this.rowOffsets);
+    result = 31 * result + Arrays.hashCode(this.columnOffsets);
+    result = 31 * result + Arrays.hashCode(this.weights);
+    return 31 * result + Boolean.hashCode(this.serpentine);
+  }
+
+  @Override
+  public Image executeMethod(Image image, int width, int height, int maxPixel) {
+    byte[] plane = new byte[width * height];
+    this.dither(ImageImpl.pixelData(image), plane, width, height, maxPixel);
+    return new GreyImage(width, height, maxPixel, plane);
+  }
+
+  @Override
+  public void executeInto(int[] src, int[] dest, int width, int height, int maxPixel) {
+    byte[] plane = new byte[width * height];
+    this.dither(src, plane, width, height, maxPixel);
+    GreyImage.expand(plane, dest);
+  }
+
+  private void dither(int[] src, byte[] dest, int width, int height, int maxPixel) {
+    // narrower images have a single tile in every wave of the wavefront
+    if (wavefront && !this.serpentine && RowBandScheduler.getParallelism() > 1 && height > TILE_ROWS
+        && width >= 2 * this.tileColumns() && width * height >= MIN_WAVEFRONT_PIXELS) {
+      this.wavefront(src, dest, width, height, maxPixel);
+      return;
+    }
+    // the error pushed to a row is only needed until that row is dithered, so a ring of as
+    // many rows as the matrix has is enough; errors are added in the same order as on a whole
+    // map of the image
+    double[][] ring = new double[this.kernelRows][width];
+    double[][] window = new double[this.kernelRows][];
+    for (int col = 0; col < Math.min(this.kernelRows, height); col++) {
+      lumaRow(src, col * width, width, ring[col]);
+    }
+    for (int col = 0; col < height; col++) {
+      for (int row = 0; row < this.kernelRows; row++) {
+        window[row] = col + row < height ? ring[(col + row) % this.kernelRows] : null;
+      }
+      this.diffuseSpan(window, dest, col * width, 0, width, this.serpentine && col % 2 == 1,
+              maxPixel);
+      if (col + this.kernelRows < height) {
+        lumaRow(src, (col + this.kernelRows) * width, width, ring[col % this.kernelRows]);
+      }
+    }
+  }
+
+  private int tileColumns() {
+    // wide enough that a tile only waits for the next tile of the band above, and never
+    // touches the pixels of a tile of the same wave
+    return (this.skew + 1) * TILE_ROWS;
+  }
+
+  /**
+   * Dither the image as a wavefront of tiles. Every row of a tile starts skew pixels left of the
+   * row above, so tile (band, column) only needs tiles (band, column - 1) and
+   * (band - 1, column + 1). All tiles with the same column + 2 * band are independent and run
+   * in parallel, and every pixel receives its errors in the same order as in a sequential run.
+   */
+  private void wavefront(int[] src, byte[] dest, int width, int height, int maxPixel) {
+    double[][] rows = new double[height][];
+    for (int col = 0; col < Math.min(this.kernelRows - 1, height); col++) {
+      rows[col] = new double[width];
+      lumaRow(src, col * width, width, rows[col]);
+    }
+    int tileColumns = this.tileColumns();
+    int bands = (height + TILE_ROWS - 1) / TILE_ROWS;
+    int columns = (width + this.skew * (TILE_ROWS - 1) + tileColumns - 1) / tileColumns;
+    for (int wave = 0; wave < columns + 2 * (bands - 1); wave++) {
+      int firstBand = Math.max(0, (wave - columns + 2) / 2);
+      int lastBand = Math.min(bands - 1, wave / 2);
+      int current = wave;
+      RowBandScheduler.forEachBand(lastBand - firstBand + 1, TILE_ROWS * tileColumns,
+          (start, end) -> {
+            for (int band = firstBand + start; band < firstBand + end; band++) {
+              this.diffuseTile(src, dest, rows, width, height, maxPixel, band,
+                      current - 2 * band, columns);
+            }
+          });
+    }
+  }
+
+  private void diffuseTile(int[] src, byte[] dest, double[][] rows, int width, int height,
+                           int maxPixel, int band, int column, int columns) {
+    int tileColumns = this.tileColumns();
+    double[][] window = new double[this.kernelRows][];
+    int firstRow = band * TILE_ROWS;
+    int endRow = Math.min(height, firstRow + TILE_ROWS);
+    for (int col = firstRow; col < endRow; col++) {
+      int last = col + this.kernelRows - 1;
+      if (column == 0 && last < height) {
+        rows[last] = new double[width];
+        lumaRow(src, last * width, width, rows[last]);
+      }
+      for (int row = 0; row < this.kernelRows; row++) {
+        window[row] = col + row < height ? rows[col + row] : null;
+      }
+      int shift = this.skew * (col - firstRow);
+      int from = Math.max(0, column * tileColumns - shift);
+      int to = Math.min(width, (column + 1) * tileColumns - shift);
+      if (from < to) {
+        this.diffuseSpan(window, dest, col * width, from, to, false, maxPixel);
+      }
+    }
+    if (column == columns - 1) {
+      for (int col = firstRow; col < endRow; col++) {
+        rows[col] = null;
+      }
+    }
+  }
+
+  /**
+   * Dither the pixels [from, to) of a row, pushing their errors to the pixels ahead.
+   *
+   * @param window   luma values of the row and the rows below it, null past the last row
+   * @param dest     grey levels of the destination
+   * @param start    index of the row in the destination
+   * @param from     first pixel to dither
+   * @param to       pixel after the last one to dither
+   * @param reverse  true to scan from right to left with the matrix mirrored
+   * @param maxPixel max allowed value of a channel, white is this value clamped to 8 bits
+   */
+  private void diffuseSpan(double[][] window, byte[] dest, int start, int from, int to,
+                           boolean reverse, int maxPixel) {
+    double[] current = window[0];
+    int width = current.length;
+    int direction = reverse ? -1 : 1;
+    int first = reverse ? to - 1 : from;
+    int[] rows = this.rowOffsets;
+    int[] columns = this.columnOffsets;
+    double[] table = this.weights;
+    int white = ImageImpl.channelLimit(maxPixel);
+    for (int i = 0; i < to - from; i++) {
+      int row = first + direction * i;
+      double oldColor = current[row];
+      int newColor = oldColor < 128 ? 0 : white;
+      double error = oldColor - newColor;
+      for (int entry = 0; entry < table.length; entry++) {
+        double[] target = window[rows[entry]];
+        int column = row + direction * columns[entry];
+        if (target != null && column >= 0 && column < width) {
+          target[column] = addError(target[column], error * table[entry]);
+        }
+      }
+      dest[start + row] = (byte) newColor;
+    }
+  }
+
+  private static void lumaRow(int[] src, int start, int width, double[] row) {
+    for (int i = 0; i < width; i++) {
+      int pixel = src[start + i];
+      row[i] = (0.2126 * ((pixel >> 16) & 0xFF)) + (0.7152 * ((pixel >> 8) & 0xFF))
+               + (0.0722 * (pixel & 0xFF));
+    }
+  }
+
+  private static double addError(double color, double error) {
+    double newColor = color + error;
+    if (newColor < 0) {
+      return 0;
+    }
+    return Math.min(newColor, 255);
+  }
+}
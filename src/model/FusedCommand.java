@@ -0,0 +1,151 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class represents a chain of pixel operations and flips applied in a single pass over the
+ * image. Pixel operations do not depend on the position of a pixel, so they commute with flips:
+ * the flips of the chain reduce to reading every row and column of the source in forward or
+ * reverse order, and the pixel operations are applied in their original order to every pixel
+ * read. No intermediate image is created. Two chains are equal when they have the same steps
+ * with the same parameters, so their results are found in the result cache.
+ */
+public class FusedCommand extends AbstractCommand {
+  private final PixelOperation[] operations;
+  private final List<Object> steps;
+  private final boolean horizontalFlip;
+  private final boolean verticalFlip;
+
+  private FusedCommand(List<PixelOperation> operations, List<Object> steps,
+                       boolean horizontalFlip, boolean verticalFlip) {
+    this.operations = operations.toArray(new PixelOperation[0]);
+    this.steps = new ArrayList<>(steps);
+    this.horizontalFlip = horizontalFlip;
+    this.verticalFlip = verticalFlip;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof FusedCommand)) {
+      return false;
+    }
+    FusedCommand command = (FusedCommand) obj;
+    return this.horizontalFlip == command.horizontalFlip
+           && this.verticalFlip == command.verticalFlip && this.steps.equals(command.steps);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.steps, this.horizontalFlip, this.verticalFlip);
+  }
+
+  @Override
+  public void executeInto(int[] src, int[] dest, int width, int height, int maxPixel) {
+    RowBandScheduler.forEachBand(height, width, (startRow, endRow) -> {
+      // every row is read once and then stays in the cache while all operations run over it
+      for (int col = startRow; col < endRow; col++) {
+        int srcStart = (this.verticalFlip ? height - 1 - col : col) * width;
+        int destStart = col * width;
+        if (this.horizontalFlip) {
+          for (int row = 0; row < width; row++) {
+            dest[destStart + row] = src[srcStart + width - 1 - row];
+          }
+        } else {
+          System.arraycopy(src, srcStart, dest, destStart, width);
+        }
+        for (PixelOperation operation : this.operations) {
+          operation.applyToRange(dest, destStart, destStart + width, maxPixel);
+        }
+      }
+    });
+  }
+
+  /**
+   * This inner class represents a builder that collects the steps of a chain in the order they
+   * are applied.
+   */
+  public static class Builder {
+    private final List<PixelOperation> operations = new ArrayList<>();
+    // describes every operation with its parameters, for the equality of the chain
+    private final List<Object> steps = new ArrayList<>();
+    private boolean horizontalFlip;
+    private boolean verticalFlip;
+
+    /**
+     * Add a brighten step.
+     *
+     * @param quantity value added to every channel
+     * @return this builder
+     */
+    public Builder brighten(int quantity) {
+      this.operations.add((pixels, start, end, maxPixel) ->
+          ImageImpl.brightenRange(pixels, pixels, start, end, quantity, maxPixel));
+      this.steps.add(Arrays.asList("brighten", quantity));
+      return this;
+    }
+
+    /**
+     * Add a greyscale step.
+     *
+     * @param component name of the component, like luma-component
+     * @return this builder
+     * @throws IllegalArgumentException if the component is not supported
+     */
+    public Builder greyScale(String component) throws IllegalArgumentException {
+      int channel = ImageImpl.greyScaleComponent(component);
+      this.operations.add((pixels, start, end, maxPixel) ->
+          ImageImpl.greyScaleRange(pixels, pixels, start, end, channel));
+      this.steps.add(Arrays.asList("greyscale", channel));
+      return this;
+    }
+
+    /**
+     * Add any other pixel operation, like a color transform. The chain is equal to another only
+     * if the operation is equal to theirs.
+     *
+     * @param operation the operation
+     * @return this builder
+     */
+    public Builder pixelOperation(PixelOperation operation) {
+      this.operations.add(operation);
+      this.steps.add(operation);
+      return this;
+    }
+
+    /**
+     * Add a horizontal flip step.
+     *
+     * @return this builder
+     */
+    public Builder horizontalFlip() {
+      this.horizontalFlip = !this.horizontalFlip;
+      return this;
+    }
+
+    /**
+     * Add a vertical flip step.
+     *
+     * @return this builder
+     */
+    public Builder verticalFlip() {
+      this.verticalFlip = !this.verticalFlip;
+      return this;
+    }
+
+    /**
+     * Build the command running all the steps added so far.
+     *
+     * @return the fused command
+     */
+    public FusedCommand build() {
+      return new FusedCommand(this.operations, this.steps, this.horizontalFlip,
+              this.verticalFlip);
+    }
+  }
+}
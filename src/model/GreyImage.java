@@ -0,0 +1,628 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents a greyscale image, like the result of greyscale, rgb-split or dither.
+ * All three channels of a pixel are equal, so a single level is stored per pixel: either a plane
+ * of bytes, a quarter of the memory of packed pixels, or a view of one channel of the packed
+ * pixels of another image, which costs no memory at all. Encoding, display, greyscale, brighten,
+ * flips, rotations, splitting and combining work on the levels directly and keep the image in
+ * this form; any other operation expands it once into packed pixels and continues as a regular
+ * image. Greyscale images are written as PGM, and black and white ones as 1-bit PBM.
+ *
+ * <p>Like the packed pixels of {@link ImageImpl}, the levels are never moved by flips and
+ * rotations. They keep their own orientation, with the same bits, and are read through it.
+ */
+public class GreyImage extends ImageImplExt {
+  private static final int CHANNEL_VALUES = 256;
+  private volatile int[] channel;
+  private volatile byte[] plane;
+  private final int shift;
+  private volatile int levelOrientation;
+
+  /**
+   * Initialise the content of a greyscale image.
+   *
+   * @param width    width of image
+   * @param height   height of image
+   * @param maxPixel maximum allowed value for a pixel
+   * @param plane    grey level of every pixel, row by row; it is never modified
+   */
+  protected GreyImage(int width, int height, int maxPixel, byte[] plane) {
+    super(width, height, maxPixel, null);
+    this.plane = plane;
+    this.shift = 0;
+  }
+
+  /**
+   * Initialise a greyscale image viewing one channel of packed pixels.
+   *
+   * @param width       width of image
+   * @param height      height of image
+   * @param maxPixel    maximum allowed value for a pixel
+   * @param pixels      packed pixels as stored; they are never modified
+   * @param shift       shift of the channel in a packed pixel, 16, 8 or 0
+   * @param orientation orientation of the packed pixels relative to how the image is seen
+   */
+  GreyImage(int width, int height, int maxPixel, int[] pixels, int shift, int orientation) {
+    super(width, height, maxPixel, null);
+    this.channel = pixels;
+    this.shift = shift;
+    this.levelOrientation = orientation;
+  }
+
+  /**
+   * Expand grey levels into packed pixels.
+   *
+   * @param plane grey level of every pixel
+   * @param dest  buffer of at least as many ints that receives the packed pixels
+   */
+  static void expand(byte[] plane, int[] dest) {
+    for (int i = 0; i < plane.length; i++) {
+      dest[i] = (plane[i] & 0xFF) * 0x010101;
+    }
+  }
+
+  /**
+   * Return the stored levels: the viewed packed pixels, the plane of bytes, or null once the
+   * image is expanded. The channel is read first, since it is only dropped after the plane or
+   * the packed pixels replacing it are set.
+   */
+  private Object levels() {
+    int[] pixels = this.channel;
+    return pixels != null ? pixels : this.plane;
+  }
+
+  private static int length(Object levels) {
+    return levels instanceof int[] ? ((int[]) levels).length : ((byte[]) levels).length;
+  }
+
+  /**
+   * Read the levels of consecutive pixels, in the row order of the image as it is seen.
+   *
+   * @param levels the stored levels, as returned by levels()
+   * @param start  index of the first pixel
+   * @param count  number of pixels
+   * @param dest   buffer that receives the levels from index 0
+   */
+  private void readLevels(Object levels, int start, int count, int[] dest) {
+    int current = this.levelOrientation;
+    if (current == 0) {
+      this.readStored(levels, start, 1, count, dest, 0);
+      return;
+    }
+    boolean transposed = (current & TRANSPOSED) != 0;
+    boolean flippedX = (current & FLIPPED_X) != 0;
+    boolean flippedY = (current & FLIPPED_Y) != 0;
+    int storedWidth = transposed ? this.height : this.width;
+    int storedHeight = transposed ? this.width : this.height;
+    int row = start / this.width;
+    int col = start % this.width;
+    for (int i = 0; i < count; row++, col = 0) {
+      int run = Math.min(count - i, this.width - col);
+      if (!transposed) {
+        int index = (flippedY ? storedHeight - 1 - row : row) * storedWidth
+                    + (flippedX ? storedWidth - 1 - col : col);
+        this.readStored(levels, index, flippedX ? -1 : 1, run, dest, i);
+      } else {
+        // a row of the image is a column of the stored levels
+        int index = (flippedY ? storedHeight - 1 - col : col) * storedWidth
+                    + (flippedX ? storedWidth - 1 - row : row);
+        this.readStored(levels, index, flippedY ? -storedWidth : storedWidth, run, dest, i);
+      }
+      i += run;
+    }
+  }
+
+  private void readStored(Object levels, int index, int step, int count, int[] dest,
+                          int offset) {
+    if (levels instanceof int[]) {
+      int[] pixels = (int[]) levels;
+      for (int i = 0; i < count; i++, index += step) {
+        dest[offset + i] = (pixels[index] >> this.shift) & 0xFF;
+      }
+    } else {
+      byte[] data = (byte[]) levels;
+      for (int i = 0; i < count; i++, index += step) {
+        dest[offset + i] = data[index] & 0xFF;
+      }
+    }
+  }
+
+  /**
+   * Return the levels as a plane of bytes in row order. The levels of a channel view are copied
+   * out of the viewed pixels and kept; levels seen flipped or rotated are read into a new plane,
+   * and the stored ones are left as they are.
+   *
+   * @return the plane, or null once the image is expanded
+   */
+  private byte[] plane() {
+    Object levels = this.levels();
+    if (levels != null && this.levelOrientation != 0) {
+      return this.map(levels, byteTable(levelTable()));
+    }
+    if (this.channel != null) {
+      synchronized (this) {
+        int[] pixels = this.channel;
+        if (pixels != null) {
+          byte[] data = new byte[pixels.length];
+          for (int i = 0; i < pixels.length; i++) {
+            data[i] = (byte) (pixels[i] >> this.shift);
+          }
+          this.plane = data;
+          this.channel = null;
+        }
+      }
+    }
+    return this.plane;
+  }
+
+  @Override
+  int[] pixels() {
+    if (this.channel != null || this.plane != null) {
+      synchronized (this) {
+        Object levels = this.levels();
+        if (levels != null) {
+          int[] expanded = new int[length(levels)];
+          this.readLevels(levels, 0, expanded.length, expanded);
+          for (int i = 0; i < expanded.length; i++) {
+            expanded[i] *= 0x010101;
+          }
+          this.pixelData = expanded;
+          this.channel = null;
+          this.plane = null;
+        }
+      }
+    }
+    return super.pixels();
+  }
+
+  @Override
+  long computeHash() {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.computeHash();
+    }
+    // the hash of the packed pixels, expanded a block at a time
+    int length = length(levels);
+    long[] lanes = startHash();
+    int[] block = new int[Math.min(length, 1 << 12)];
+    int start = 0;
+    do {
+      int count = Math.min(block.length, length - start);
+      this.readLevels(levels, start, count, block);
+      for (int i = 0; i < count; i++) {
+        block[i] *= 0x010101;
+      }
+      hashLanes(lanes, block, count);
+      start += count;
+      if (start == length) {
+        return finishHash(lanes, block, count & ~7, count, length);
+      }
+    } while (true);
+  }
+
+  /**
+   * Tell whether the image is still stored as levels, rather than expanded to packed pixels.
+   *
+   * @return true if the image holds levels
+   */
+  boolean holdsLevels() {
+    return this.levels() != null;
+  }
+
+  @Override
+  boolean sameContent(ImageImpl other) {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.sameContent(other);
+    }
+    Object otherLevels = other instanceof GreyImage ? ((GreyImage) other).levels() : null;
+    GreyImage grey = otherLevels != null ? (GreyImage) other : null;
+    if (grey != null && levels == otherLevels && this.shift == grey.shift
+        && this.levelOrientation == grey.levelOrientation) {
+      return true;
+    }
+    if (this.contentHash() != other.contentHash()) {
+      return false;
+    }
+    // packed pixels are compared with the levels expanded a row at a time, so neither image
+    // changes the way it is stored
+    int[] data = grey == null ? other.pixels() : null;
+    int[] row = new int[this.width];
+    int[] otherRow = new int[this.width];
+    for (int col = 0; col < this.height; col++) {
+      int start = col * this.width;
+      this.readLevels(levels, start, this.width, row);
+      if (grey != null) {
+        grey.readLevels(otherLevels, start, this.width, otherRow);
+      }
+      for (int i = 0; i < this.width; i++) {
+        if (grey != null ? row[i] != otherRow[i] : row[i] * 0x010101 != data[start + i]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  void remember(ResultCache.Key key) {
+    byte[] data = this.plane();
+    if (data == null) {
+      super.remember(key);
+    } else {
+      ResultCache.put(key, data);
+    }
+  }
+
+  @Override
+  public List<List<Pixel>> getPixels() {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.getPixels();
+    }
+    List<List<Pixel>> pixelMap = new ArrayList<>(this.height);
+    int[] row = new int[this.width];
+    for (int col = 0; col < this.height; col++) {
+      this.readLevels(levels, col * this.width, this.width, row);
+      List<Pixel> rowList = new ArrayList<>(this.width);
+      for (int grey : row) {
+        rowList.add(new Pixel(grey, grey, grey));
+      }
+      pixelMap.add(rowList);
+    }
+    return pixelMap;
+  }
+
+  @Override
+  public Image copy() {
+    GreyImage view = this.view(this.width, this.height, 0);
+    return view != null ? view : super.copy();
+  }
+
+  /**
+   * Build an image on the same stored levels, seen with the orientation of this image followed
+   * by an optional transpose.
+   *
+   * @param width     width of the view
+   * @param height    height of the view
+   * @param transpose TRANSPOSED to swap the axes, 0 to keep them
+   * @return the view, or null once the image is expanded
+   */
+  private synchronized GreyImage view(int width, int height, int transpose) {
+    Object levels = this.levels();
+    if (levels == null) {
+      return null;
+    }
+    int current = this.levelOrientation ^ transpose;
+    if (levels instanceof int[]) {
+      return new GreyImage(width, height, this.maxPixel, (int[]) levels, this.shift, current);
+    }
+    GreyImage view = new GreyImage(width, height, this.maxPixel, (byte[]) levels);
+    view.levelOrientation = current;
+    return view;
+  }
+
+  private byte[] map(Object levels, byte[] table) {
+    byte[] result = new byte[length(levels)];
+    RowBandScheduler.forEachBand(this.height, this.width, (startRow, endRow) -> {
+      int[] row = new int[this.width];
+      for (int col = startRow; col < endRow; col++) {
+        int start = col * this.width;
+        this.readLevels(levels, start, this.width, row);
+        for (int i = 0; i < this.width; i++) {
+          result[start + i] = table[row[i]];
+        }
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public Image brighten(int quantity) {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.brighten(quantity);
+    }
+    int[] table = levelTable();
+    brightenRange(table, table, 0, CHANNEL_VALUES, quantity, this.maxPixel);
+    byte[] data = this.map(levels, byteTable(table));
+    synchronized (this) {
+      this.plane = data;
+      this.channel = null;
+      this.levelOrientation = 0;
+    }
+    this.resetHash();
+    return this;
+  }
+
+  @Override
+  public Image greyScale(String component) {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.greyScale(component);
+    }
+    int[] table = levelTable();
+    greyScaleRange(table, table, 0, CHANNEL_VALUES, greyScaleComponent(component));
+    return new GreyImage(this.width, this.height, this.maxPixel,
+            this.map(levels, byteTable(table)));
+  }
+
+  private static int[] levelTable() {
+    // every grey level as a packed pixel, to run the packed pixel operations on
+    int[] levels = new int[CHANNEL_VALUES];
+    for (int grey = 0; grey < CHANNEL_VALUES; grey++) {
+      levels[grey] = grey * 0x010101;
+    }
+    return levels;
+  }
+
+  private static byte[] byteTable(int[] levels) {
+    byte[] table = new byte[levels.length];
+    for (int grey = 0; grey < levels.length; grey++) {
+      table[grey] = (byte) levels[grey];
+    }
+    return table;
+  }
+
+  @Override
+  public Map<String, Image> rgbSplit() {
+    if (this.levels() == null) {
+      return super.rgbSplit();
+    }
+    // every channel is the image itself
+    Map<String, Image> resultantChannels = new HashMap<>();
+    resultantChannels.put("red", this.copy());
+    resultantChannels.put("green", this.copy());
+    resultantChannels.put("blue", this.copy());
+    return resultantChannels;
+  }
+
+  /**
+   * Combine three greyscale images stored as levels into one image in a single pass. The widths
+   * and heights are checked up front; the images are greyscale by type. Combining the three
+   * channel views of one image gives back that image without copying its pixels.
+   *
+   * @param red   image giving the red channel
+   * @param green image giving the green channel
+   * @param blue  image giving the blue channel
+   * @return the combined image, or null if one of the images is not stored as levels
+   * @throws IllegalArgumentException if the images have different sizes
+   */
+  static Image combine(ImageImpl red, Image green, Image blue)
+          throws IllegalArgumentException {
+    if (!(red instanceof GreyImage && green instanceof GreyImage
+          && blue instanceof GreyImage)) {
+      return null;
+    }
+    if (!red.sameDimensions(green) || !red.sameDimensions(blue)) {
+      throw new IllegalArgumentException("Pass grey-scale images only");
+    }
+    GreyImage[] images = {(GreyImage) red, (GreyImage) green, (GreyImage) blue};
+    Object[] levels = new Object[3];
+    for (int i = 0; i < 3; i++) {
+      levels[i] = images[i].levels();
+      if (levels[i] == null) {
+        return null;
+      }
+    }
+    int orientation = images[0].levelOrientation;
+    if (levels[0] instanceof int[] && levels[0] == levels[1] && levels[1] == levels[2]
+        && images[0].shift == 16 && images[1].shift == 8 && images[2].shift == 0
+        && images[1].levelOrientation == orientation
+        && images[2].levelOrientation == orientation) {
+      return red.orientedImage((int[]) levels[0], orientation);
+    }
+    int width = red.width;
+    int[] combined = new int[length(levels[0])];
+    RowBandScheduler.forEachBand(red.height, width, (startRow, endRow) -> {
+      int[] redRow = new int[width];
+      int[] greenRow = new int[width];
+      int[] blueRow = new int[width];
+      for (int col = startRow; col < endRow; col++) {
+        int start = col * width;
+        images[0].readLevels(levels[0], start, width, redRow);
+        images[1].readLevels(levels[1], start, width, greenRow);
+        images[2].readLevels(levels[2], start, width, blueRow);
+        for (int i = 0; i < width; i++) {
+          combined[start + i] = packPixel(redRow[i], greenRow[i], blueRow[i]);
+        }
+      }
+    });
+    return new ImageImplExt(width, red.height, red.maxPixel, combined);
+  }
+
+  @Override
+  public Image horizontalFlip() {
+    // x of the image is the stored y when the axes are transposed
+    return this.reorient(FLIPPED_X, FLIPPED_Y) ? this : super.horizontalFlip();
+  }
+
+  @Override
+  public Image verticalFlip() {
+    return this.reorient(FLIPPED_Y, FLIPPED_X) ? this : super.verticalFlip();
+  }
+
+  /**
+   * Flip the levels by changing their orientation.
+   *
+   * @param flip       bit of the stored axis to flip
+   * @param transposed bit to flip instead when the axes are transposed
+   * @return true if flipped, false once the image is expanded
+   */
+  private synchronized boolean reorient(int flip, int transposed) {
+    if (this.levels() == null) {
+      return false;
+    }
+    this.levelOrientation ^= (this.levelOrientation & TRANSPOSED) != 0 ? transposed : flip;
+    this.resetHash();
+    return true;
+  }
+
+  @Override
+  public Image rotateClockwise() {
+    GreyImage view = this.view(this.height, this.width, TRANSPOSED);
+    return view != null ? view.horizontalFlip() : super.rotateClockwise();
+  }
+
+  @Override
+  public Image rotateCounterClockwise() {
+    GreyImage view = this.view(this.height, this.width, TRANSPOSED);
+    return view != null ? view.verticalFlip() : super.rotateCounterClockwise();
+  }
+
+  @Override
+  public void writePlain(GatheringByteChannel channel) throws IOException {
+    Object levels = this.levels();
+    if (levels == null) {
+      super.writePlain(channel);
+      return;
+    }
+    ByteBuffer header = plainHeader(this.width, this.height, this.maxPixel);
+    ByteBuffer text = ByteBuffer.allocate(WRITE_CHUNK_BYTES);
+    byte[] bytes = text.array();
+    int room = bytes.length - 3 * MAX_SAMPLE_TEXT_BYTES;
+    int k = 0;
+    int[] row = new int[this.width];
+    for (int col = 0; col < this.height; col++) {
+      this.readLevels(levels, col * this.width, this.width, row);
+      for (int level : row) {
+        for (int channelIndex = 0; channelIndex < 3; channelIndex++) {
+          k = appendSample(bytes, k, level);
+        }
+        if (k > room) {
+          k = flushText(channel, header, text, k);
+        }
+      }
+    }
+    flushText(channel, header, text, k);
+  }
+
+  @Override
+  public void writeBinary(GatheringByteChannel channel, String format)
+          throws IOException, IllegalArgumentException {
+    String magic = binaryMagic(format);
+    Object levels = this.levels();
+    if (levels == null || "P6".equals(magic)) {
+      super.writeBinary(channel, format);
+      return;
+    }
+    boolean bilevel = this.isBilevel(levels);
+    if ("P4".equals(magic) && !bilevel) {
+      throw new IllegalArgumentException("Pass black and white images only");
+    }
+    if (magic == null) {
+      magic = bilevel ? "P4" : "P5";
+    }
+    boolean bits = "P4".equals(magic);
+    if (!bits) {
+      requireByteSamples(this.maxPixel);
+    }
+    int rowBytes = bits ? (this.width + 7) / 8 : this.width;
+    int rows = Math.min(this.height, Math.max(1, WRITE_CHUNK_BYTES / rowBytes));
+    ByteBuffer header = header(magic, this.width, this.height, bits ? 0 : this.maxPixel);
+    ByteBuffer raster = ByteBuffer.allocate(rows * rowBytes);
+    byte[] bytes = raster.array();
+    int[] row = new int[this.width];
+    for (int col = 0; col < this.height; col += rows) {
+      int end = Math.min(this.height, col + rows);
+      int k = 0;
+      for (int current = col; current < end; current++) {
+        this.readLevels(levels, current * this.width, this.width, row);
+        if (bits) {
+          k = packBits(row, bytes, k);
+        } else {
+          for (int level : row) {
+            bytes[k++] = (byte) level;
+          }
+        }
+      }
+      raster.clear();
+      raster.limit(k);
+      writeFully(channel, header, raster);
+    }
+  }
+
+  private boolean isBilevel(Object levels) {
+    int[] row = new int[this.width];
+    int white = channelLimit(this.maxPixel);
+    for (int col = 0; col < this.height; col++) {
+      this.readLevels(levels, col * this.width, this.width, row);
+      for (int level : row) {
+        if (level != 0 && level != white) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Pack a row of black and white levels into bits, eight pixels a byte with the first pixel in
+   * the most significant bit. Black pixels are set, and the last byte is padded with zeros.
+   *
+   * @param row  levels of the row
+   * @param dest buffer that receives the bytes
+   * @param k    index of the first byte in the buffer
+   * @return index after the last byte
+   */
+  private static int packBits(int[] row, byte[] dest, int k) {
+    for (int x = 0; x < row.length; x += 8) {
+      int bits = 0;
+      for (int bit = 0; bit < 8; bit++) {
+        bits <<= 1;
+        if (x + bit < row.length && row[x + bit] == 0) {
+          bits |= 1;
+        }
+      }
+      dest[k++] = (byte) bits;
+    }
+    return k;
+  }
+
+  @Override
+  public StringBuilder encodeImage() {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.encodeImage();
+    }
+    StringBuilder builder = new StringBuilder();
+    builder.append(this.width).append(System.lineSeparator());
+    builder.append(this.height).append(System.lineSeparator());
+    builder.append(this.maxPixel).append(System.lineSeparator());
+    int[] row = new int[this.width];
+    for (int col = 0; col < this.height; col++) {
+      this.readLevels(levels, col * this.width, this.width, row);
+      for (int grey : row) {
+        for (int channel = 0; channel < 3; channel++) {
+          builder.append(grey).append(System.lineSeparator());
+        }
+      }
+    }
+    return builder;
+  }
+
+  @Override
+  public BufferedImage getBufferedImage() {
+    Object levels = this.levels();
+    if (levels == null) {
+      return super.getBufferedImage();
+    }
+    // the levels are expanded into a new buffer, so the image keeps its single plane
+    int[] data = new int[length(levels)];
+    this.readLevels(levels, 0, data.length, data);
+    for (int i = 0; i < data.length; i++) {
+      data[i] *= 0x010101;
+    }
+    return wrapPixels(data, this.width, this.height);
+  }
+}
@@ -1,6 +1,8 @@
 package model;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.GatheringByteChannel;
 import java.util.List;
 import java.util.Map;
 
@@ -10,12 +12,21 @@ import java.util.Map;
  */
 public interface Image {
   /**
-   * A public getter method for pixels of the image.
+   * A public getter method for pixels of the image. The returned matrix is a compatibility view
+   * built on every call, images do not store their pixels as objects.
    *
    * @return pixel map of the image
    */
   public List<List<ImageImpl.Pixel>> getPixels();
 
+  /**
+   * Create a copy of this image. The copy shares its pixels with this image until either of the
+   * two is modified, so copying costs nothing for images that are only read.
+   *
+   * @return copied image object
+   */
+  public Image copy();
+
   /**
    * Brightens the image by a certain quantity.
    *
@@ -38,6 +49,20 @@ public interface Image {
    */
   public Image verticalFlip();
 
+  /**
+   * Rotate the image by 90 degrees clockwise. The image itself is not changed.
+   *
+   * @return new image object
+   */
+  public Image rotateClockwise();
+
+  /**
+   * Rotate the image by 90 degrees counterclockwise. The image itself is not changed.
+   *
+   * @return new image object
+   */
+  public Image rotateCounterClockwise();
+
   /**
    * Convert RGB image into a grey scale component.
    *
@@ -70,5 +95,28 @@ public interface Image {
    */
   StringBuilder encodeImage();
 
+  /**
+   * Write the image to a channel in the plain PPM (P3) format, with every value on its own line.
+   * The text is streamed through a fixed buffer, so it never has to fit in memory.
+   *
+   * @param channel channel to write the image to
+   * @throws IOException if the channel cannot be written
+   */
+  void writePlain(GatheringByteChannel channel) throws IOException;
+
+  /**
+   * Write the image to a channel in a binary PNM format: ppm (P6) for colour images, pgm (P5)
+   * for greyscale images and pbm (P4) for black and white images, or pnm for the smallest of
+   * them that holds the image.
+   *
+   * @param channel channel to write the image to
+   * @param format  ppm, pgm, pbm or pnm
+   * @throws IOException              if the channel cannot be written
+   * @throws IllegalArgumentException if the format is not supported or does not hold the image,
+   *                                  or if a format with samples has a max value above 255
+   */
+  void writeBinary(GatheringByteChannel channel, String format)
+          throws IOException, IllegalArgumentException;
+
   BufferedImage getBufferedImage();
 }
@@ -19,4 +19,11 @@ public interface ImageCollection {
    * @param image   image object
    */
   public void storeImage(String objName, Image image);
+
+  /**
+   * remove the image with the given name from the collection, if there is one.
+   *
+   * @param objName name of the image
+   */
+  public void removeImage(String objName);
 }
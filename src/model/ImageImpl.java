@@ -1,8 +1,21 @@
 package model;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,49 +23,103 @@ import java.util.Scanner;
 
 /**
  * This class represents the implementation of an Image (model). An Image will have width, height,
- * max value allowed for a pixel and a matrix of pixel(red, green, blue) objects.
+ * max value allowed for a pixel and its pixels packed into a single int array. Every pixel takes
+ * one int holding its red, green and blue channels as 0x00RRGGBB, stored row by row.
+ *
+ * <p>Flips and rotations by 90 degrees do not move any pixel. The image keeps the orientation of
+ * its stored pixels relative to how it is seen, as a transpose followed by flips of the stored
+ * axes, and an operation that needs the pixels row by row materialises them once.
  */
 public class ImageImpl implements Image {
+  private static final long HASH_PRIME_1 = 0x9E3779B185EBCA87L;
+  private static final long HASH_PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long HASH_PRIME_3 = 0x165667B19E3779F9L;
+  private static final long HASH_PRIME_4 = 0x85EBCA77C2B2AE63L;
+  static final int WRITE_CHUNK_BYTES = 1 << 16;
+  private static final int[] RGB_MASKS = {0xFF0000, 0xFF00, 0xFF};
+  private static final byte[][] SAMPLE_TEXT = sampleText();
+  static final int MAX_SAMPLE_TEXT_BYTES = SAMPLE_TEXT[255].length;
   protected final int maxPixel;
   protected final int height;
   protected final int width;
-  protected final List<List<Pixel>> imagePixels;
+  static final int TRANSPOSED = 1;
+  static final int FLIPPED_X = 2;
+  static final int FLIPPED_Y = 4;
+  protected int[] pixelData;
+  private volatile int orientation;
+  private boolean sharedPixels;
+  private long contentHash;
+  private volatile boolean hashed;
 
   /**
    * Initialise the member variables of the Image model.
    *
-   * @param width    width of image
-   * @param height   height of image
-   * @param maxPixel max allowed val for a pixel
-   * @param pixels   a matrix of pixel objects
+   * @param width     width of image
+   * @param height    height of image
+   * @param maxPixel  max allowed val for a pixel
+   * @param pixelData packed 0x00RRGGBB pixels of the image, row by row
    */
-  protected ImageImpl(int width, int height, int maxPixel, List<List<Pixel>> pixels) {
+  protected ImageImpl(int width, int height, int maxPixel, int[] pixelData) {
     this.width = width;
     this.height = height;
     this.maxPixel = maxPixel;
-    this.imagePixels = pixels;
+    this.pixelData = pixelData;
   }
 
-  public List<List<Pixel>> getPixels() {
-    return this.imagePixels;
+  /**
+   * Pack the three channels of a pixel into a single int.
+   *
+   * @param red   red channel
+   * @param green green channel
+   * @param blue  blue channel
+   * @return packed 0x00RRGGBB pixel
+   */
+  static int packPixel(int red, int green, int blue) {
+    return (red << 16) | (green << 8) | blue;
   }
 
-  private StringBuilder hashmapHelper() {
-    StringBuilder builder = new StringBuilder();
-    builder.append(this.width);
-    builder.append(this.height);
-    builder.append(this.maxPixel);
+  /**
+   * Return the packed pixels of any image. Images of this implementation hand out their backing
+   * array, materialised in row order first, so callers must not modify it.
+   *
+   * @param image an Image object
+   * @return packed 0x00RRGGBB pixels, row by row
+   */
+  static int[] pixelData(Image image) {
+    if (image instanceof ImageImpl) {
+      return ((ImageImpl) image).pixels();
+    }
+    List<List<Pixel>> pixels = image.getPixels();
+    int width = pixels.isEmpty() ? 0 : pixels.get(0).size();
+    int[] data = new int[pixels.size() * width];
+    for (int col = 0; col < pixels.size(); col++) {
+      for (int row = 0; row < width; row++) {
+        Pixel pixel = pixels.get(col).get(row);
+        data[col * width + row] = packPixel((int) pixel.red, (int) pixel.green, (int) pixel.blue);
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Build a matrix of pixel objects from the packed pixels. The matrix is a copy, changes made
+   * to it are not reflected in the image.
+   *
+   * @return pixel map of the image
+   */
+  @Override
+  public List<List<Pixel>> getPixels() {
+    List<List<Pixel>> pixelMap = new ArrayList<>(this.height);
+    int[] data = this.pixels();
     for (int col = 0; col < this.height; col++) {
-      List<Pixel> rowList = new ArrayList<>();
-      rowList = this.imagePixels.get(col);
+      List<Pixel> rowList = new ArrayList<>(this.width);
       for (int row = 0; row < this.width; row++) {
-        Pixel pixels = rowList.get(row);
-        builder.append(pixels.red);
-        builder.append(pixels.green);
-        builder.append(pixels.blue);
+        int pixel = data[col * this.width + row];
+        rowList.add(new Pixel((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF));
       }
+      pixelMap.add(rowList);
     }
-    return builder;
+    return pixelMap;
   }
 
   @Override
@@ -64,80 +131,391 @@ public class ImageImpl implements Image {
       return false;
     }
     ImageImpl img = (ImageImpl) obj;
-    return this.height == img.height && this.width == img.width && this.maxPixel == img.maxPixel &&
-           this.imagePixels.equals(img.imagePixels);
+    if (this.height != img.height || this.width != img.width || this.maxPixel != img.maxPixel) {
+      return false;
+    }
+    return this.sameContent(img);
+  }
+
+  /**
+   * Compare the pixels of this image with the pixels of another image of the same size.
+   *
+   * @param other the other image
+   * @return true if all pixels are equal
+   */
+  boolean sameContent(ImageImpl other) {
+    if (other instanceof GreyImage && ((GreyImage) other).holdsLevels()) {
+      // compared on the side of the levels, which are not expanded for it
+      return other.sameContent(this);
+    }
+    if (this.contentHash() != other.contentHash()) {
+      return false;
+    }
+    int[] data = this.pixels();
+    int[] otherData = other.pixels();
+    return data == otherData || Arrays.equals(data, otherData);
   }
 
   @Override
   public int hashCode() {
-    return this.hashmapHelper().toString().hashCode();
+    int result = 31 * this.width + this.height;
+    result = 31 * result + this.maxPixel;
+    long hash = this.contentHash();
+    return 31 * result + (int) (hash ^ (hash >>> 32));
+  }
+
+  @Override
+  public Image copy() {
+    return this.view(this.width, this.height, 0);
+  }
+
+  /**
+   * Build an image on the same stored pixels, seen with the orientation of this image followed
+   * by an optional transpose. The stored pixels become shared.
+   *
+   * @param width     width of the view
+   * @param height    height of the view
+   * @param transpose TRANSPOSED to swap the axes, 0 to keep them
+   * @return the view
+   */
+  private synchronized ImageImpl view(int width, int height, int transpose) {
+    ImageImpl view = new ImageImplExt(width, height, this.maxPixel, this.pixelData);
+    view.orientation = this.orientation ^ transpose;
+    this.sharedPixels = true;
+    view.sharedPixels = true;
+    if (transpose == 0) {
+      boolean hashed = this.hashed;
+      view.contentHash = this.contentHash;
+      view.hashed = hashed;
+    }
+    return view;
   }
 
-  private double capPixels(double channel, int maxValue) {
-    if (channel > maxValue) {
-      channel = maxValue;
+  /**
+   * Return the packed pixels in row order, materialising them first if the image is flipped or
+   * rotated relative to its stored pixels.
+   *
+   * @return packed pixels, row by row
+   */
+  int[] pixels() {
+    if (this.orientation == 0) {
+      return this.pixelData;
     }
-    if (channel < 0) {
-      channel = 0;
+    synchronized (this) {
+      int current = this.orientation;
+      if (current != 0) {
+        this.pixelData = orient(this.pixelData, this.width, this.height, current);
+        this.sharedPixels = false;
+        this.orientation = 0;
+      }
+      return this.pixelData;
+    }
+  }
+
+  private static int[] orient(int[] stored, int width, int height, int orientation) {
+    boolean transposed = (orientation & TRANSPOSED) != 0;
+    boolean flippedX = (orientation & FLIPPED_X) != 0;
+    boolean flippedY = (orientation & FLIPPED_Y) != 0;
+    int storedWidth = transposed ? height : width;
+    int storedHeight = transposed ? width : height;
+    int[] data = new int[stored.length];
+    RowBandScheduler.forEachBand(height, width, (startRow, endRow) -> {
+      for (int row = startRow; row < endRow; row++) {
+        int start = row * width;
+        if (!transposed) {
+          int source = (flippedY ? storedHeight - 1 - row : row) * storedWidth;
+          if (flippedX) {
+            for (int col = 0; col < width; col++) {
+              data[start + col] = stored[source + storedWidth - 1 - col];
+            }
+          } else {
+            System.arraycopy(stored, source, data, start, width);
+          }
+        } else {
+          // a row of the image is a column of the stored pixels
+          int source = flippedX ? storedWidth - 1 - row : row;
+          int step = flippedY ? -storedWidth : storedWidth;
+          int index = flippedY ? (storedHeight - 1) * storedWidth + source : source;
+          for (int col = 0; col < width; col++, index += step) {
+            data[start + col] = stored[index];
+          }
+        }
+      }
+    });
+    return data;
+  }
+
+  /**
+   * Return a 64-bit hash of the pixels. It is computed once, with four independent xxHash style
+   * lanes over pairs of pixels, and kept until the pixels change.
+   *
+   * @return hash of the pixels
+   */
+  long contentHash() {
+    if (!this.hashed) {
+      this.contentHash = this.computeHash();
+      this.hashed = true;
+    }
+    return this.contentHash;
+  }
+
+  /**
+   * Compute the hash of the pixels, as returned by contentHash.
+   *
+   * @return hash of the pixels
+   */
+  long computeHash() {
+    int[] data = this.pixels();
+    long[] lanes = startHash();
+    hashLanes(lanes, data, data.length);
+    return finishHash(lanes, data, data.length & ~7, data.length, data.length);
+  }
+
+  /**
+   * Start the hash of a sequence of packed pixels.
+   *
+   * @return the four lanes of the hash
+   */
+  static long[] startHash() {
+    return new long[]{HASH_PRIME_1 + HASH_PRIME_2, HASH_PRIME_2, 0, -HASH_PRIME_1};
+  }
+
+  /**
+   * Feed the next pixels of the sequence into the lanes of the hash, eight at a time. Pixels
+   * left over after the last group of eight must be passed to finishHash.
+   *
+   * @param lanes  lanes of the hash
+   * @param data   packed pixels
+   * @param length number of pixels of data to hash
+   */
+  static void hashLanes(long[] lanes, int[] data, int length) {
+    long lane1 = lanes[0];
+    long lane2 = lanes[1];
+    long lane3 = lanes[2];
+    long lane4 = lanes[3];
+    for (int i = 0; i + 8 <= length; i += 8) {
+      lane1 = hashRound(lane1, (data[i] & 0xFFFFFFFFL) | ((long) data[i + 1] << 32));
+      lane2 = hashRound(lane2, (data[i + 2] & 0xFFFFFFFFL) | ((long) data[i + 3] << 32));
+      lane3 = hashRound(lane3, (data[i + 4] & 0xFFFFFFFFL) | ((long) data[i + 5] << 32));
+      lane4 = hashRound(lane4, (data[i + 6] & 0xFFFFFFFFL) | ((long) data[i + 7] << 32));
+    }
+    lanes[0] = lane1;
+    lanes[1] = lane2;
+    lanes[2] = lane3;
+    lanes[3] = lane4;
+  }
+
+  /**
+   * Finish the hash with the pixels left over after the last group of eight.
+   *
+   * @param lanes  lanes of the hash
+   * @param data   packed pixels holding the left over pixels
+   * @param from   index of the first left over pixel
+   * @param to     index after the last left over pixel
+   * @param length number of pixels in the whole sequence
+   * @return the hash
+   */
+  static long finishHash(long[] lanes, int[] data, int from, int to, int length) {
+    long hash = Long.rotateLeft(lanes[0], 1) + Long.rotateLeft(lanes[1], 7)
+                + Long.rotateLeft(lanes[2], 12) + Long.rotateLeft(lanes[3], 18);
+    hash += 4L * length;
+    for (int i = from; i < to; i++) {
+      hash = Long.rotateLeft(hash ^ hashRound(0, data[i] & 0xFFFFFFFFL), 27) * HASH_PRIME_1
+             + HASH_PRIME_4;
+    }
+    hash ^= hash >>> 33;
+    hash *= HASH_PRIME_2;
+    hash ^= hash >>> 29;
+    hash *= HASH_PRIME_3;
+    return hash ^ (hash >>> 32);
+  }
+
+  private static long hashRound(long lane, long input) {
+    return Long.rotateLeft(lane + input * HASH_PRIME_2, 31) * HASH_PRIME_1;
+  }
+
+  /**
+   * Build an image of the same size on pixels that must not be modified, like cached ones.
+   *
+   * @param data packed int[] pixels or byte[] grey plane, as stored in the cache
+   * @return new image sharing the pixels
+   */
+  ImageImpl sharedImage(Object data) {
+    if (data instanceof byte[]) {
+      return new GreyImage(this.width, this.height, this.maxPixel, (byte[]) data);
+    }
+    ImageImpl image = new ImageImplExt(this.width, this.height, this.maxPixel, (int[]) data);
+    image.sharedPixels = true;
+    return image;
+  }
+
+  /**
+   * Build an image of the same size on stored pixels that must not be modified, seen with the
+   * given orientation.
+   *
+   * @param data        packed pixels as stored
+   * @param orientation orientation of the stored pixels relative to how the image is seen
+   * @return new image sharing the pixels
+   */
+  ImageImpl orientedImage(int[] data, int orientation) {
+    ImageImpl image = this.sharedImage(data);
+    image.orientation = orientation;
+    return image;
+  }
+
+  /**
+   * Store the pixels of this image as the result of an operation. The pixels become shared, so
+   * a later change of this image copies them first.
+   *
+   * @param key key of the result
+   */
+  void remember(ResultCache.Key key) {
+    int[] data = this.pixels();
+    synchronized (this) {
+      ResultCache.put(key, data);
+      this.sharedPixels = true;
+    }
+  }
+
+  private boolean useCached(ResultCache.Key key) {
+    Object cached = ResultCache.get(key);
+    if (!(cached instanceof int[])) {
+      return false;
+    }
+    this.pixelData = (int[]) cached;
+    this.orientation = 0;
+    this.sharedPixels = true;
+    this.hashed = false;
+    return true;
+  }
+
+  /**
+   * Forget the hash of the pixels after they changed.
+   */
+  void resetHash() {
+    this.hashed = false;
+  }
+
+  private int[] writablePixels() {
+    int[] data = this.pixels();
+    return this.sharedPixels ? new int[data.length] : data;
+  }
+
+  private void setPixels(int[] data) {
+    this.pixelData = data;
+    this.orientation = 0;
+    this.sharedPixels = false;
+    this.hashed = false;
+  }
+
+  /**
+   * Return the largest value a channel of an image can hold: the max value of the image, but
+   * never more than the 8 bits each channel is packed in, so a channel cannot spill into the
+   * next one.
+   *
+   * @param maxPixel max allowed value of a channel
+   * @return the largest value stored in a channel
+   */
+  static int channelLimit(int maxPixel) {
+    return Math.min(maxPixel, 0xFF);
+  }
+
+  private static int capPixels(int channel, int maxValue) {
+    return Math.min(Math.max(channel, 0), maxValue);
+  }
+
+  /**
+   * Brighten a range of packed pixels. The source and destination may be the same array.
+   *
+   * @param src      packed source pixels
+   * @param dest     packed destination pixels
+   * @param start    index of the first pixel
+   * @param end      index after the last pixel
+   * @param quantity value added to every channel
+   * @param maxValue max allowed value of a channel
+   */
+  static void brightenRange(int[] src, int[] dest, int start, int end, int quantity,
+                            int maxValue) {
+    int limit = channelLimit(maxValue);
+    for (int i = start; i < end; i++) {
+      int pixel = src[i];
+      int red = capPixels(((pixel >> 16) & 0xFF) + quantity, limit);
+      int green = capPixels(((pixel >> 8) & 0xFF) + quantity, limit);
+      int blue = capPixels((pixel & 0xFF) + quantity, limit);
+      dest[i] = packPixel(red, green, blue);
     }
-    return channel;
   }
 
   @Override
   public Image brighten(int quantity) {
-    List<List<Pixel>> pixelMap = this.imagePixels;
-    for (int col = 0; col < this.height; col++) {
-      List<Pixel> rowList;
-      rowList = pixelMap.get(col);
-      for (int row = 0; row < this.width; row++) {
-        Pixel pixel = rowList.get(row);
-        double red = capPixels(pixel.red + quantity, this.maxPixel);
-        double blue = capPixels(pixel.blue + quantity, this.maxPixel);
-        double green = capPixels(pixel.green + quantity, this.maxPixel);
-        pixel = new Pixel(red, green, blue);
-        rowList.set(row, pixel);
-      }
-      pixelMap.set(col, rowList);
+    ResultCache.Key key = ResultCache.key(this, Arrays.asList("brighten", quantity));
+    if (this.useCached(key)) {
+      return this;
     }
+    int[] src = this.pixels();
+    int[] data = this.writablePixels();
+    RowBandScheduler.forEachBand(this.height, this.width, (startRow, endRow) ->
+        brightenRange(src, data, startRow * this.width, endRow * this.width, quantity,
+                this.maxPixel));
+    this.setPixels(data);
+    this.remember(key);
     return this;
   }
 
   @Override
   public Image horizontalFlip() {
-    List<List<Pixel>> pixelMap = this.imagePixels;
-    for (int col = 0; col < this.height; col++) {
-      List<Pixel> rowList = pixelMap.get(col);
-      Collections.reverse(rowList);
-      pixelMap.set(col, rowList);
-    }
+    // x of the image is the stored y when the axes are transposed
+    this.reorient((this.orientation & TRANSPOSED) != 0 ? FLIPPED_Y : FLIPPED_X);
     return this;
   }
 
   @Override
   public Image verticalFlip() {
-    Collections.reverse(this.imagePixels);
+    this.reorient((this.orientation & TRANSPOSED) != 0 ? FLIPPED_X : FLIPPED_Y);
     return this;
   }
 
-  private double greyScaleHelper(Pixel pixel, String component) {
-    switch (component) {
+  private synchronized void reorient(int flip) {
+    this.orientation ^= flip;
+    this.hashed = false;
+  }
+
+  @Override
+  public Image rotateClockwise() {
+    return this.view(this.height, this.width, TRANSPOSED).horizontalFlip();
+  }
+
+  @Override
+  public Image rotateCounterClockwise() {
+    return this.view(this.height, this.width, TRANSPOSED).verticalFlip();
+  }
+
+  /**
+   * Map the name of a greyscale component to the number used by the greyscale helpers.
+   *
+   * @param component name of the component, like red-component
+   * @return number of the component
+   * @throws IllegalArgumentException if the component is not supported
+   */
+  static int greyScaleComponent(String component) throws IllegalArgumentException {
+    switch (component.split("-")[0]) {
       case "red": {
-        return pixel.red;
+        return 0;
       }
       case "green": {
-        return pixel.green;
+        return 1;
       }
       case "blue": {
-        return pixel.blue;
+        return 2;
       }
       case "value": {
-        return pixel.val;
+        return 3;
       }
       case "intensity": {
-        return pixel.intensity;
+        return 4;
       }
       case "luma": {
-        return pixel.luma;
+        return 5;
       }
       default: {
         throw new IllegalArgumentException("pass valid args\n valid args are: red-component, " +
@@ -147,48 +525,144 @@ public class ImageImpl implements Image {
     }
   }
 
+  /**
+   * Compute the greyscale of a range of packed pixels. The source and destination may be the
+   * same array.
+   *
+   * @param src       packed source pixels
+   * @param dest      packed destination pixels
+   * @param start     index of the first pixel
+   * @param end       index after the last pixel
+   * @param component number of the component, as returned by greyScaleComponent
+   */
+  static void greyScaleRange(int[] src, int[] dest, int start, int end, int component) {
+    greyScaleRange(src, start, dest, start, end - start, component);
+  }
+
+  private static void greyScaleRange(int[] src, int srcStart, int[] dest, int destStart,
+                                     int count, int component) {
+    int offset = srcStart - destStart;
+    int start = destStart;
+    int end = destStart + count;
+    switch (component) {
+      case 0: {
+        for (int i = start; i < end; i++) {
+          dest[i] = greyPixel((src[i + offset] >> 16) & 0xFF);
+        }
+        break;
+      }
+      case 1: {
+        for (int i = start; i < end; i++) {
+          dest[i] = greyPixel((src[i + offset] >> 8) & 0xFF);
+        }
+        break;
+      }
+      case 2: {
+        for (int i = start; i < end; i++) {
+          dest[i] = greyPixel(src[i + offset] & 0xFF);
+        }
+        break;
+      }
+      case 3: {
+        for (int i = start; i < end; i++) {
+          int pixel = src[i + offset];
+          dest[i] = greyPixel(Math.max((pixel >> 16) & 0xFF,
+                  Math.max((pixel >> 8) & 0xFF, pixel & 0xFF)));
+        }
+        break;
+      }
+      case 4: {
+        for (int i = start; i < end; i++) {
+          int pixel = src[i + offset];
+          int sum = ((pixel >> 16) & 0xFF) + ((pixel >> 8) & 0xFF) + (pixel & 0xFF);
+          // sum / 3 as a multiply and shift, exact for every sum up to 3 * 255
+          dest[i] = greyPixel((sum * 21846) >> 16);
+        }
+        break;
+      }
+      default: {
+        for (int i = start; i < end; i++) {
+          int pixel = src[i + offset];
+          dest[i] = greyPixel((int) ((0.2126 * ((pixel >> 16) & 0xFF))
+                  + (0.7152 * ((pixel >> 8) & 0xFF)) + (0.0722 * (pixel & 0xFF))));
+        }
+        break;
+      }
+    }
+  }
+
+  private static int greyPixel(int grey) {
+    return grey * 0x010101;
+  }
+
   @Override
   public Image greyScale(String component) {
-    List<List<Pixel>> pixelMap = new ArrayList<>();
-    pixelMap.addAll(this.imagePixels);
-    for (int col = 0; col < this.height; col++) {
-      List<Pixel> rowList = new ArrayList<>();
-      rowList.addAll(pixelMap.get(col));
-      for (int row = 0; row < this.width; row++) {
-        Pixel pixels = rowList.get(row);
-        double resultantPixel = this.greyScaleHelper(pixels, component.split("-")[0]);
-        pixels = new Pixel(resultantPixel, resultantPixel, resultantPixel);
-        rowList.set(row, pixels);
-      }
-      pixelMap.set(col, rowList);
+    int channel = greyScaleComponent(component);
+    ResultCache.Key key = ResultCache.key(this, Arrays.asList("greyscale", channel));
+    Object cached = ResultCache.get(key);
+    if (cached != null) {
+      return this.sharedImage(cached);
     }
-    return new ImageImplExt(this.width, this.height, this.maxPixel, pixelMap);
+    int[] data = this.pixels();
+    byte[] plane = new byte[data.length];
+    RowBandScheduler.forEachBand(this.height, this.width, (startRow, endRow) -> {
+      int[] row = new int[this.width];
+      for (int col = startRow; col < endRow; col++) {
+        int start = col * this.width;
+        greyScaleRange(data, start, row, 0, this.width, channel);
+        for (int i = 0; i < this.width; i++) {
+          plane[start + i] = (byte) row[i];
+        }
+      }
+    });
+    ImageImpl grey = new GreyImage(this.width, this.height, this.maxPixel, plane);
+    grey.remember(key);
+    return grey;
   }
 
   @Override
   public Map<String, Image> rgbSplit() {
+    // the channels are views of the stored pixels of this image, in the same orientation, and
+    // the pixels become shared
+    int[] data;
+    int current;
+    synchronized (this) {
+      data = this.pixelData;
+      current = this.orientation;
+      this.sharedPixels = true;
+    }
     Map<String, Image> resultantChannels = new HashMap<>();
-    resultantChannels.put("red", this.greyScale("red"));
-    resultantChannels.put("green", this.greyScale("green"));
-    resultantChannels.put("blue", this.greyScale("blue"));
+    resultantChannels.put("red", new GreyImage(this.width, this.height, this.maxPixel, data, 16,
+            current));
+    resultantChannels.put("green", new GreyImage(this.width, this.height, this.maxPixel, data, 8,
+            current));
+    resultantChannels.put("blue", new GreyImage(this.width, this.height, this.maxPixel, data, 0,
+            current));
     return resultantChannels;
   }
 
   @Override
   public Image rgbCombine(Image greenComp, Image blueComp) throws NullPointerException {
-    List<List<Pixel>> pixelMap = new ArrayList<>();
-    for (int col = 0; col < this.height; col++) {
-      List<Pixel> rowList = new ArrayList<>();
-      for (int row = 0; row < this.width; row++) {
-        Map<String, Double> channelVal = this.rgbCombineHelper(this.imagePixels,
-                greenComp.getPixels(), blueComp.getPixels(), col, row);
-        Pixel pixels = new Pixel(channelVal.get("red"), channelVal.get("green"),
-                channelVal.get("blue"));
-        rowList.add(pixels);
-      }
-      pixelMap.add(rowList);
+    Image levels = GreyImage.combine(this, greenComp, blueComp);
+    if (levels != null) {
+      return levels;
+    }
+    if (!this.sameDimensions(greenComp) || !this.sameDimensions(blueComp)) {
+      throw new IllegalArgumentException("Pass grey-scale images only");
     }
-    return new ImageImplExt(this.width, this.height, this.maxPixel, pixelMap);
+    int[] redMap = this.pixels();
+    int[] greenMap = pixelData(greenComp);
+    int[] blueMap = pixelData(blueComp);
+    int[] combined = new int[redMap.length];
+    RowBandScheduler.forEachBand(this.height, this.width, (startRow, endRow) -> {
+      for (int i = startRow * this.width; i < endRow * this.width; i++) {
+        if (!isGreyScale(redMap[i]) || !isGreyScale(greenMap[i]) || !isGreyScale(blueMap[i])) {
+          throw new IllegalArgumentException("Pass grey-scale images only");
+        }
+        combined[i] = (redMap[i] & 0xFF0000) | (greenMap[i] & 0xFF00) | (blueMap[i] & 0xFF);
+      }
+    });
+    return new ImageImplExt(this.width, this.height, this.maxPixel, combined);
   }
 
   @Override
@@ -197,72 +671,251 @@ public class ImageImpl implements Image {
     builder.append(this.width).append(System.lineSeparator());
     builder.append(this.height).append(System.lineSeparator());
     builder.append(this.maxPixel).append(System.lineSeparator());
-    for (int col = 0; col < this.height; col++) {
-      List<Pixel> rowList = this.imagePixels.get(col);
-      for (int row = 0; row < this.width; row++) {
-        Pixel pixel = rowList.get(row);
-        builder.append((int) pixel.red).append(System.lineSeparator());
-        builder.append((int) pixel.green).append(System.lineSeparator());
-        builder.append((int) pixel.blue).append(System.lineSeparator());
-      }
+    for (int pixel : this.pixels()) {
+      builder.append((pixel >> 16) & 0xFF).append(System.lineSeparator());
+      builder.append((pixel >> 8) & 0xFF).append(System.lineSeparator());
+      builder.append(pixel & 0xFF).append(System.lineSeparator());
     }
     return builder;
   }
 
   @Override
-  public BufferedImage getBufferedImage() {
-    StringBuilder builder = this.encodeImage();
-    Scanner sc = new Scanner(builder.toString());
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    int maxVal = sc.nextInt();
-    BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int r = sc.nextInt();
-        int g = sc.nextInt();
-        int b = sc.nextInt();
-        int col = (r << 16) | (g << 8) | b;
-        bufferedImage.setRGB(j, i, col);
+  public void writePlain(GatheringByteChannel channel) throws IOException {
+    ByteBuffer header = plainHeader(this.width, this.height, this.maxPixel);
+    ByteBuffer text = ByteBuffer.allocate(WRITE_CHUNK_BYTES);
+    byte[] bytes = text.array();
+    int room = bytes.length - 3 * MAX_SAMPLE_TEXT_BYTES;
+    int k = 0;
+    for (int pixel : this.pixels()) {
+      k = appendSample(bytes, k, (pixel >> 16) & 0xFF);
+      k = appendSample(bytes, k, (pixel >> 8) & 0xFF);
+      k = appendSample(bytes, k, pixel & 0xFF);
+      if (k > room) {
+        k = flushText(channel, header, text, k);
       }
     }
-    return bufferedImage;
+    flushText(channel, header, text, k);
   }
 
-  private boolean sameDimensions(List<List<Pixel>> redMap,
-                                 List<List<Pixel>> greenMap,
-                                 List<List<Pixel>> blueMap) {
-    return (redMap.size() == greenMap.size())
-           && (greenMap.size() == blueMap.size())
-           && (redMap.get(0).size() == greenMap.get(0).size())
-           && (greenMap.get(0).size() == blueMap.get(0).size());
+  /**
+   * Encode the header of a plain PPM file, with a line for every field after the magic number.
+   *
+   * @param width    width of the image
+   * @param height   height of the image
+   * @param maxPixel maximum allowed value for a channel
+   * @return the header, ready to be written
+   */
+  static ByteBuffer plainHeader(int width, int height, int maxPixel) {
+    String separator = System.lineSeparator();
+    String header = "P3\n" + width + separator + height + separator + maxPixel + separator;
+    return ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
   }
 
-  private boolean isGreyScale(List<List<Pixel>> map, int row, int col) {
-    return (map.get(col).get(row).red == map.get(col).get(row).green) &&
-           (map.get(col).get(row).green == map.get(col).get(row).blue);
+  private static byte[][] sampleText() {
+    byte[][] text = new byte[256][];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (i + System.lineSeparator()).getBytes(StandardCharsets.US_ASCII);
+    }
+    return text;
   }
 
-  private Map<String, Double> rgbCombineHelper(List<List<Pixel>> redMap,
-                                               List<List<Pixel>> greenMap,
-                                               List<List<Pixel>> blueMap, int col, int row) {
-    Map<String, Double> channelVal = new HashMap<>();
-    if (sameDimensions(redMap, greenMap, blueMap)
-        && isGreyScale(redMap, row, col)
-        && isGreyScale(greenMap, row, col)
-        && isGreyScale(blueMap, row, col)) {
-      channelVal.put("red", redMap.get(col).get(row).red);
-      channelVal.put("green", greenMap.get(col).get(row).green);
-      channelVal.put("blue", blueMap.get(col).get(row).blue);
-    } else {
-      throw new IllegalArgumentException("Pass grey-scale images only");
+  /**
+   * Append the text of a sample, followed by a line separator, to a buffer.
+   *
+   * @param dest  buffer that receives the text
+   * @param k     index of the first byte in the buffer
+   * @param value value of the sample, 0 to 255
+   * @return index after the last byte
+   */
+  static int appendSample(byte[] dest, int k, int value) {
+    for (byte digit : SAMPLE_TEXT[value]) {
+      dest[k++] = digit;
+    }
+    return k;
+  }
+
+  /**
+   * Write the first bytes of a text buffer, after the header if any of it is left.
+   *
+   * @param channel channel to write to
+   * @param header  header of the file, empty once written
+   * @param text    buffer of the text
+   * @param count   number of bytes to write
+   * @return 0, the index of the next byte in the emptied buffer
+   * @throws IOException if the channel cannot be written
+   */
+  static int flushText(GatheringByteChannel channel, ByteBuffer header, ByteBuffer text,
+                       int count) throws IOException {
+    text.clear();
+    text.limit(count);
+    writeFully(channel, header, text);
+    return 0;
+  }
+
+  @Override
+  public void writeBinary(GatheringByteChannel channel, String format)
+          throws IOException, IllegalArgumentException {
+    String magic = binaryMagic(format);
+    int[] data = this.pixels();
+    if (!"P6".equals(magic)) {
+      boolean grey = true;
+      for (int i = 0; i < data.length && grey; i++) {
+        grey = this.isGreyScale(data[i]);
+      }
+      if (grey) {
+        // every channel holds the level, so a view of one of them is written without a copy
+        new GreyImage(this.width, this.height, this.maxPixel, data, 0, 0).writeBinary(channel,
+                format);
+        return;
+      }
+      if (magic != null) {
+        throw new IllegalArgumentException("Pass grey-scale images only");
+      }
+    }
+    requireByteSamples(this.maxPixel);
+    int rowBytes = 3 * this.width;
+    int rows = Math.min(this.height, Math.max(1, WRITE_CHUNK_BYTES / rowBytes));
+    ByteBuffer header = header("P6", this.width, this.height, this.maxPixel);
+    ByteBuffer raster = ByteBuffer.allocate(rows * rowBytes);
+    byte[] bytes = raster.array();
+    for (int col = 0; col < this.height; col += rows) {
+      int end = Math.min(this.height, col + rows) * this.width;
+      int k = 0;
+      for (int i = col * this.width; i < end; i++) {
+        int pixel = data[i];
+        bytes[k++] = (byte) (pixel >> 16);
+        bytes[k++] = (byte) (pixel >> 8);
+        bytes[k++] = (byte) pixel;
+      }
+      raster.clear();
+      raster.limit(k);
+      writeFully(channel, header, raster);
+    }
+  }
+
+  /**
+   * Check that the samples of an image fit the single byte a binary PNM file gives them. Files
+   * with a maximum value above 255 need two bytes a sample, which images do not store.
+   *
+   * @param maxPixel max allowed value of a channel
+   * @throws IllegalArgumentException if the max value is above 255
+   */
+  static void requireByteSamples(int maxPixel) throws IllegalArgumentException {
+    if (maxPixel > 0xFF) {
+      throw new IllegalArgumentException("Binary PNM files with a maximum value above 255 are "
+              + "not supported, save the image as plain PPM instead");
     }
-    return channelVal;
+  }
+
+  /**
+   * Return the magic number of a binary PNM format.
+   *
+   * @param format ppm, pgm or pbm, or pnm for the smallest format that holds the image
+   * @return P6, P5 or P4, or null for pnm
+   * @throws IllegalArgumentException if the format is not supported
+   */
+  static String binaryMagic(String format) throws IllegalArgumentException {
+    switch (format) {
+      case "ppm":
+        return "P6";
+      case "pgm":
+        return "P5";
+      case "pbm":
+        return "P4";
+      case "pnm":
+        return null;
+      default:
+        throw new IllegalArgumentException("Invalid file format passed.");
+    }
+  }
+
+  /**
+   * Encode the header of a binary PNM file.
+   *
+   * @param magic    magic number of the format
+   * @param width    width of the image
+   * @param height   height of the image
+   * @param maxPixel maximum allowed value for a channel, or 0 if the format has none
+   * @return the header, ready to be written
+   */
+  static ByteBuffer header(String magic, int width, int height, int maxPixel) {
+    String header = magic + "\n" + width + " " + height + "\n"
+                    + (maxPixel > 0 ? maxPixel + "\n" : "");
+    return ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /**
+   * Write the header, if any of it is left, and then all of the raster with gathering writes.
+   *
+   * @param channel channel to write to
+   * @param header  header of the file, empty once written
+   * @param raster  bytes of the raster
+   * @throws IOException if the channel cannot be written
+   */
+  static void writeFully(GatheringByteChannel channel, ByteBuffer header, ByteBuffer raster)
+          throws IOException {
+    ByteBuffer[] buffers = {header, raster};
+    while (header.hasRemaining() || raster.hasRemaining()) {
+      channel.write(buffers);
+    }
+  }
+
+  /**
+   * Return the image as a buffered image of type TYPE_INT_RGB, which has the layout of the packed
+   * pixels. The buffered image wraps the pixels of this image without a copy, so they become
+   * shared and it must not be modified.
+   *
+   * @return the buffered image
+   */
+  @Override
+  public BufferedImage getBufferedImage() {
+    int[] data = this.pixels();
+    synchronized (this) {
+      this.sharedPixels = true;
+    }
+    return wrapPixels(data, this.width, this.height);
+  }
+
+  /**
+   * Wrap packed pixels in a buffered image of type TYPE_INT_RGB.
+   *
+   * @param data   packed 0x00RRGGBB pixels, row by row
+   * @param width  width of the image
+   * @param height height of the image
+   * @return the buffered image, backed by the pixels
+   */
+  static BufferedImage wrapPixels(int[] data, int width, int height) {
+    WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(data, data.length), width,
+            height, width, RGB_MASKS, null);
+    return new BufferedImage(new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]),
+            raster, false, null);
+  }
+
+  /**
+   * Return true if an image has the same width and height as this image.
+   *
+   * @param image the other image
+   * @return true if both dimensions match
+   */
+  boolean sameDimensions(Image image) {
+    if (image instanceof ImageImpl) {
+      ImageImpl other = (ImageImpl) image;
+      return this.width == other.width && this.height == other.height;
+    }
+    List<List<Pixel>> pixels = image.getPixels();
+    return pixels.size() == this.height
+           && (pixels.isEmpty() ? 0 : pixels.get(0).size()) == this.width;
+  }
+
+  private boolean isGreyScale(int pixel) {
+    int red = (pixel >> 16) & 0xFF;
+    return red == ((pixel >> 8) & 0xFF) && red == (pixel & 0xFF);
   }
 
   /**
    * This static inner class represents a pixel in an image. A pixel will have 3 channels - red,
-   * green and blue.
+   * green and blue. Images no longer store their pixels as objects of this class, it is only
+   * used for the matrix returned by {@link Image#getPixels()}.
    */
   public static class Pixel {
     protected double red;
@@ -302,8 +955,9 @@ public class ImageImpl implements Image {
 
     @Override
     public int hashCode() {
-      String s = "" + this.red + this.green + this.blue;
-      return s.hashCode();
+      int result = Double.hashCode(this.red);
+      result = 31 * result + Double.hashCode(this.green);
+      return 31 * result + Double.hashCode(this.blue);
     }
   }
 
@@ -317,6 +971,7 @@ public class ImageImpl implements Image {
      *
      * @param builder a StringBuilder object containing contents of an image read from a file.
      * @return a new Image object
+     * @throws IllegalArgumentException if a sample is not between 0 and 255
      */
     public Image loadFile(StringBuilder builder) {
       if (builder != null) {
@@ -324,21 +979,121 @@ public class ImageImpl implements Image {
         int width = sc.nextInt();
         int height = sc.nextInt();
         int maxVal = sc.nextInt();
-        List<List<Pixel>> pixels = new ArrayList<>();
-        for (int i = 0; i < height; i++) {
-          List<Pixel> rowList = new ArrayList<>();
-          for (int j = 0; j < width; j++) {
-            int r = sc.nextInt();
-            int g = sc.nextInt();
-            int b = sc.nextInt();
-            rowList.add(new Pixel(r, g, b));
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+          int r = sc.nextInt();
+          int g = sc.nextInt();
+          int b = sc.nextInt();
+          // each channel is packed in 8 bits, a larger sample would spill into the next one
+          if (((r | g | b) & ~0xFF) != 0) {
+            throw new IllegalArgumentException("Invalid pixel value passed in the file.");
           }
-          pixels.add(rowList);
+          pixels[i] = packPixel(r, g, b);
         }
         return new ImageImplExt(width, height, maxVal, pixels);
       } else {
         throw new IllegalArgumentException("Invalid Image passed in input.");
       }
     }
+
+    /**
+     * Construct an image from pixels that are already decoded. The image takes ownership of the
+     * array, so the caller must not modify it afterwards.
+     *
+     * @param width  width of the image
+     * @param height height of the image
+     * @param maxVal maximum allowed value for a channel
+     * @param pixels packed 0x00RRGGBB pixels of the image, row by row
+     * @return a new Image object
+     * @throws IllegalArgumentException if the number of pixels does not match the size
+     */
+    public Image loadPixels(int width, int height, int maxVal, int[] pixels)
+            throws IllegalArgumentException {
+      if (width <= 0 || height <= 0 || pixels == null || pixels.length != width * height) {
+        throw new IllegalArgumentException("Invalid Image passed in input.");
+      }
+      return new ImageImplExt(width, height, maxVal, pixels);
+    }
+
+    /**
+     * Construct an image from a buffered image. Integer RGB and byte BGR images are read straight
+     * from their data buffer, and an integer RGB image whose buffer holds exactly its pixels is
+     * taken over without a copy, so it must not be used afterwards. Any other type is converted
+     * to RGB in a single bulk read. The alpha channel is dropped.
+     *
+     * @param image the buffered image
+     * @return a new Image object
+     */
+    public Image loadBufferedImage(BufferedImage image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      WritableRaster raster = image.getRaster();
+      DataBuffer buffer = raster.getDataBuffer();
+      SampleModel sampleModel = raster.getSampleModel();
+      int type = image.getType();
+      boolean direct = buffer.getNumBanks() == 1 && raster.getSampleModelTranslateX() == 0
+                       && raster.getSampleModelTranslateY() == 0;
+      int[] pixels;
+      if (direct && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+        int[] data = ((DataBufferInt) buffer).getData();
+        int stride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        int offset = buffer.getOffset();
+        boolean packed = offset == 0 && stride == width && data.length == width * height;
+        for (int i = 0; i < data.length && packed; i++) {
+          packed = (data[i] & 0xFF000000) == 0;
+        }
+        if (packed) {
+          return this.loadPixels(width, height, 255, data);
+        }
+        pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+          int start = offset + row * stride;
+          for (int col = 0; col < width; col++) {
+            pixels[row * width + col] = data[start + col] & 0xFFFFFF;
+          }
+        }
+      } else if (direct && (type == BufferedImage.TYPE_3BYTE_BGR
+                            || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+        byte[] data = ((DataBufferByte) buffer).getData();
+        ComponentSampleModel components = (ComponentSampleModel) sampleModel;
+        int stride = components.getScanlineStride();
+        int step = components.getPixelStride();
+        int[] bands = components.getBandOffsets();
+        pixels = new int[width * height];
+        for (int row = 0; row < height; row++) {
+          int k = buffer.getOffset() + row * stride;
+          for (int col = 0; col < width; col++) {
+            pixels[row * width + col] = packPixel(data[k + bands[0]] & 0xFF,
+                    data[k + bands[1]] & 0xFF, data[k + bands[2]] & 0xFF);
+            k += step;
+          }
+        }
+      } else {
+        pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < pixels.length; i++) {
+          pixels[i] &= 0xFFFFFF;
+        }
+      }
+      return this.loadPixels(width, height, 255, pixels);
+    }
+
+    /**
+     * Construct a greyscale image from the grey level of every pixel. The image takes ownership
+     * of the array, so the caller must not modify it afterwards.
+     *
+     * @param width  width of the image
+     * @param height height of the image
+     * @param maxVal maximum allowed value for a channel
+     * @param levels grey level of every pixel, row by row
+     * @return a new Image object
+     * @throws IllegalArgumentException if the number of levels does not match the size
+     */
+    public Image loadLevels(int width, int height, int maxVal, byte[] levels)
+            throws IllegalArgumentException {
+      if (width <= 0 || height <= 0 || levels == null || levels.length != width * height) {
+        throw new IllegalArgumentException("Invalid Image passed in input.");
+      }
+      return new GreyImage(width, height, maxVal, levels);
+    }
   }
 }
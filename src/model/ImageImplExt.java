@@ -1,10 +1,9 @@
 package model;
 
-import java.util.List;
-
 /**
  * This class represents an extension of the existing model that supports encapsulated command
- * objects to manipulate itself.
+ * objects to manipulate itself. Results of commands are kept in the {@link ResultCache}, so a
+ * command equal to one already run on the same content is not run again.
  */
 public class ImageImplExt extends ImageImpl implements ImageExt {
   /**
@@ -13,14 +12,26 @@ public class ImageImplExt extends ImageImpl implements ImageExt {
    * @param width    width of image
    * @param height   height of image
    * @param maxPixel maximum allowed value for a pixel
-   * @param pixels   matrix of pixel objects
+   * @param pixels   packed 0x00RRGGBB pixels of the image, row by row
    */
-  protected ImageImplExt(int width, int height, int maxPixel, List<List<Pixel>> pixels) {
+  protected ImageImplExt(int width, int height, int maxPixel, int[] pixels) {
     super(width, height, maxPixel, pixels);
   }
 
   @Override
   public Image runCommand(Command command) {
-    return command.executeMethod(this, width, height, maxPixel);
+    ResultCache.Key key = ResultCache.key(this, command);
+    Object cached = ResultCache.get(key);
+    if (cached != null) {
+      return this.sharedImage(cached);
+    }
+    Image result = command.executeMethod(this, width, height, maxPixel);
+    if (result instanceof ImageImpl) {
+      ImageImpl image = (ImageImpl) result;
+      if (image.width == width && image.height == height && image.maxPixel == maxPixel) {
+        image.remember(key);
+      }
+    }
+    return result;
   }
 }
@@ -1,11 +1,12 @@
 package model;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * This class represents a collection of images. This collection represents a hashmap of images and
- * their corresponding names.
+ * their corresponding names. It can be used by several threads at once.
  */
 public class ImageList implements ImageCollection {
 
@@ -16,7 +17,7 @@ public class ImageList implements ImageCollection {
    * application.
    */
   public ImageList() {
-    this.ledger = new HashMap<>();
+    this.ledger = Collections.synchronizedMap(new HashMap<>());
   }
 
   @Override
@@ -28,4 +29,9 @@ public class ImageList implements ImageCollection {
   public void storeImage(String objName, Image image) {
     this.ledger.put(objName, image);
   }
+
+  @Override
+  public void removeImage(String objName) {
+    this.ledger.remove(objName);
+  }
 }
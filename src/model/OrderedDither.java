@@ -0,0 +1,199 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class represents an Ordered Dither Command that converts the given image into a B/W image
+ * by comparing the luma of every pixel with a threshold from a tile repeated over the image. The
+ * tile is a Bayer matrix or a blue noise tile. Unlike {@link ImageDither} no error is carried
+ * between pixels, so every pixel is independent and all rows are processed in parallel. The
+ * result is a {@link GreyImage}.
+ */
+public class OrderedDither extends AbstractCommand {
+  private static final int BLUE_NOISE_SIZE = 64;
+  private final int size;
+  private final double[] thresholds;
+
+  /**
+   * Initialise the dither with a Bayer matrix.
+   *
+   * @param size size of the Bayer matrix, 2, 4, 8 or 16
+   * @throws IllegalArgumentException if the size is not supported
+   */
+  public OrderedDither(int size) throws IllegalArgumentException {
+    this(checkSize(size), bayerRanks(size));
+  }
+
+  private OrderedDither(int size, int[] ranks) {
+    this.size = size;
+    this.thresholds = new double[ranks.length];
+    for (int i = 0; i < ranks.length; i++) {
+      // ranks spread evenly over the channel range, so a flat grey turns white in proportion
+      this.thresholds[i] = (ranks[i] + 0.5) * 256 / ranks.length;
+    }
+  }
+
+  /**
+   * Create a dither with a blue noise tile, which hides the regular pattern of a Bayer matrix.
+   *
+   * @return the dither command
+   */
+  public static OrderedDither blueNoise() {
+    return new OrderedDither(BLUE_NOISE_SIZE, BlueNoiseTile.RANKS);
+  }
+
+  private static int checkSize(int size) throws IllegalArgumentException {
+    if (size < 2 || size > 16 || (size & (size - 1)) != 0) {
+      throw new IllegalArgumentException("Bayer matrix size must be 2, 4, 8 or 16.");
+    }
+    return size;
+  }
+
+  private static int[] bayerRanks(int size) {
+    int[] ranks = {0};
+    for (int n = 1; n < size; n *= 2) {
+      int[] next = new int[4 * n * n];
+      for (int y = 0; y < n; y++) {
+        for (int x = 0; x < n; x++) {
+          int rank = 4 * ranks[y * n + x];
+          next[y * 2 * n + x] = rank;
+          next[y * 2 * n + x + n] = rank + 2;
+          next[(y + n) * 2 * n + x] = rank + 3;
+          next[(y + n) * 2 * n + x + n] = rank + 1;
+        }
+      }
+      ranks = next;
+    }
+    return ranks;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof OrderedDither)) {
+      return false;
+    }
+    return Arrays.equals(this.thresholds, ((OrderedDither) obj).thresholds);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(this.thresholds);
+  }
+
+  @Override
+  public Image executeMethod(Image image, int width, int height, int maxPixel) {
+    byte[] plane = new byte[width * height];
+    this.dither(ImageImpl.pixelData(image), plane, width, height, maxPixel);
+    return new GreyImage(width, height, maxPixel, plane);
+  }
+
+  @Override
+  public void executeInto(int[] src, int[] dest, int width, int height, int maxPixel) {
+    byte[] plane = new byte[width * height];
+    this.dither(src, plane, width, height, maxPixel);
+    GreyImage.expand(plane, dest);
+  }
+
+  private void dither(int[] src, byte[] dest, int width, int height, int maxPixel) {
+    int mask = this.size - 1;
+    double[] table = this.thresholds;
+    int white = ImageImpl.channelLimit(maxPixel);
+    RowBandScheduler.forEachBand(height, width, (startRow, endRow) -> {
+      for (int col = startRow; col < endRow; col++) {
+        int tileRow = (col & mask) * this.size;
+        int start = col * width;
+        for (int row = 0; row < width; row++) {
+          int pixel = src[start + row];
+          double luma = (0.2126 * ((pixel >> 16) & 0xFF)) + (0.7152 * ((pixel >> 8) & 0xFF))
+                        + (0.0722 * (pixel & 0xFF));
+          dest[start + row] = (byte) (luma < table[tileRow + (row & mask)] ? 0 : white);
+        }
+      }
+    });
+  }
+
+  /**
+   * This class holds the blue noise tile, built on first use with the void and cluster method:
+   * points are ranked by repeatedly filling the largest void of a toroidal tile, measured with a
+   * gaussian energy. The seed is fixed, so the tile is the same on every run.
+   */
+  private static final class BlueNoiseTile {
+    private static final int[] RANKS = voidAndCluster(BLUE_NOISE_SIZE);
+
+    private static int[] voidAndCluster(int size) {
+      int n = size * size;
+      double[] kernel = new double[n];
+      for (int dy = 0; dy < size; dy++) {
+        for (int dx = 0; dx < size; dx++) {
+          int y = Math.min(dy, size - dy);
+          int x = Math.min(dx, size - dx);
+          kernel[dy * size + dx] = StrictMath.exp(-(x * x + y * y) / (2 * 1.5 * 1.5));
+        }
+      }
+      boolean[] on = new boolean[n];
+      double[] energy = new double[n];
+      Random random = new Random(size);
+      int initial = n / 10;
+      for (int placed = 0; placed < initial; ) {
+        int i = random.nextInt(n);
+        if (!on[i]) {
+          toggle(on, energy, kernel, size, i);
+          placed++;
+        }
+      }
+      // move points from the tightest cluster to the largest void until that changes nothing
+      for (int step = 0; step < n; step++) {
+        int cluster = extreme(on, energy, true);
+        toggle(on, energy, kernel, size, cluster);
+        int largestVoid = extreme(on, energy, false);
+        toggle(on, energy, kernel, size, largestVoid);
+        if (largestVoid == cluster) {
+          break;
+        }
+      }
+      int[] ranks = new int[n];
+      boolean[] remaining = on.clone();
+      double[] remainingEnergy = energy.clone();
+      for (int rank = initial - 1; rank >= 0; rank--) {
+        int cluster = extreme(remaining, remainingEnergy, true);
+        toggle(remaining, remainingEnergy, kernel, size, cluster);
+        ranks[cluster] = rank;
+      }
+      for (int rank = initial; rank < n; rank++) {
+        int largestVoid = extreme(on, energy, false);
+        toggle(on, energy, kernel, size, largestVoid);
+        ranks[largestVoid] = rank;
+      }
+      return ranks;
+    }
+
+    private static int extreme(boolean[] on, double[] energy, boolean cluster) {
+      int best = -1;
+      for (int i = 0; i < on.length; i++) {
+        if (on[i] == cluster && (best < 0
+                || (cluster ? energy[i] > energy[best] : energy[i] < energy[best]))) {
+          best = i;
+        }
+      }
+      return best;
+    }
+
+    private static void toggle(boolean[] on, double[] energy, double[] kernel, int size,
+                               int index) {
+      on[index] = !on[index];
+      double sign = on[index] ? 1 : -1;
+      int y0 = index / size;
+      int x0 = index % size;
+      for (int y = 0; y < size; y++) {
+        int kernelRow = ((y - y0 + size) % size) * size;
+        for (int x = 0; x < size; x++) {
+          energy[y * size + x] += sign * kernel[kernelRow + (x - x0 + size) % size];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package model;
+
+/**
+ * This interface represents an operation that computes every pixel of the result only from the
+ * pixel at the same position in the source. Such operations can be chained into a single pass
+ * over the image by a {@link FusedCommand}.
+ */
+public interface PixelOperation {
+  /**
+   * Apply the operation in place to a range of pixels.
+   *
+   * @param pixels   packed 0x00RRGGBB pixels
+   * @param start    index of the first pixel
+   * @param end      index after the last pixel
+   * @param maxPixel max allowed value of a channel
+   */
+  void applyToRange(int[] pixels, int start, int end, int maxPixel);
+}
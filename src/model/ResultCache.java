@@ -0,0 +1,167 @@
+package model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class represents the cache of the results of image operations. A result is found by the
+ * size and content hash of the source image and by the operation with its parameters, so applying
+ * the same operation to the same image again returns the stored result without computing it.
+ * The cache holds at most a given number of bytes of pixels and evicts the least recently used
+ * results first. A result is stored as packed pixels, or as a single plane of bytes for
+ * greyscale results. Cached pixel arrays are never modified: images built on them copy them
+ * before changing any pixel.
+ */
+public final class ResultCache {
+  private static final long DEFAULT_CAPACITY = 256L << 20;
+  private static final Map<Key, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private static long capacity = DEFAULT_CAPACITY;
+  private static long size;
+  private static long hits;
+  private static long misses;
+
+  private ResultCache() {
+  }
+
+  /**
+   * Set the number of bytes of pixels the cache may hold, evicting results if needed.
+   *
+   * @param bytes capacity in bytes, 0 disables the cache
+   * @throws IllegalArgumentException if bytes is negative
+   */
+  public static synchronized void setCapacity(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Cache capacity must not be negative.");
+    }
+    capacity = bytes;
+    evict();
+  }
+
+  /**
+   * Return the number of lookups that found a stored result.
+   *
+   * @return number of hits
+   */
+  public static synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Return the number of lookups that had to compute the result.
+   *
+   * @return number of misses
+   */
+  public static synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Remove all results and reset the counters.
+   */
+  public static synchronized void clear() {
+    entries.clear();
+    size = 0;
+    hits = 0;
+    misses = 0;
+  }
+
+  /**
+   * Build the key of an operation applied to an image.
+   *
+   * @param source    the source image
+   * @param operation the operation with its parameters, compared with equals
+   * @return the key
+   */
+  static Key key(ImageImpl source, Object operation) {
+    return new Key(source.width, source.height, source.maxPixel, source.contentHash(),
+            operation);
+  }
+
+  /**
+   * Look up a result, counting a hit or a miss.
+   *
+   * @param key key of the result
+   * @return the stored int[] or byte[] pixels, or null if there are none
+   */
+  static synchronized Object get(Key key) {
+    Object pixels = entries.get(key);
+    if (pixels != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return pixels;
+  }
+
+  /**
+   * Store a result. The caller must not modify the pixels afterwards.
+   *
+   * @param key    key of the result
+   * @param pixels packed int[] pixels or byte[] grey plane of the result
+   */
+  static synchronized void put(Key key, Object pixels) {
+    long bytes = bytes(pixels);
+    if (bytes > capacity) {
+      return;
+    }
+    Object old = entries.put(key, pixels);
+    if (old != null) {
+      size -= bytes(old);
+    }
+    size += bytes;
+    evict();
+  }
+
+  private static long bytes(Object pixels) {
+    return pixels instanceof int[] ? 4L * ((int[]) pixels).length : ((byte[]) pixels).length;
+  }
+
+  private static void evict() {
+    Iterator<Object> eldest = entries.values().iterator();
+    while (size > capacity && eldest.hasNext()) {
+      size -= bytes(eldest.next());
+      eldest.remove();
+    }
+  }
+
+  /**
+   * This class represents the key of a cached result.
+   */
+  static final class Key {
+    private final int width;
+    private final int height;
+    private final int maxPixel;
+    private final long contentHash;
+    private final Object operation;
+
+    private Key(int width, int height, int maxPixel, long contentHash, Object operation) {
+      this.width = width;
+      this.height = height;
+      this.maxPixel = maxPixel;
+      this.contentHash = contentHash;
+      this.operation = operation;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) obj;
+      return this.width == key.width && this.height == key.height
+             && this.maxPixel == key.maxPixel && this.contentHash == key.contentHash
+             && this.operation.equals(key.operation);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.width, this.height, this.maxPixel, this.contentHash,
+              this.operation);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package model;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class represents the scheduler that splits the rows of an image into bands and processes
+ * them on a shared fork join pool. Every band writes only its own rows of the destination and
+ * reads the source freely, so the rows a kernel needs above and below a band are simply read
+ * from the source and the result is the same as a sequential run.
+ */
+public final class RowBandScheduler {
+  private static final int MIN_BAND_PIXELS = 1 << 14;
+  private static volatile ForkJoinPool pool = new ForkJoinPool(
+          Runtime.getRuntime().availableProcessors());
+
+  private RowBandScheduler() {
+  }
+
+  /**
+   * This interface represents work done on a band of rows of an image.
+   */
+  public interface RowBand {
+    /**
+     * Process the rows [startRow, endRow).
+     *
+     * @param startRow first row of the band
+     * @param endRow   row after the last row of the band
+     */
+    void run(int startRow, int endRow);
+  }
+
+  /**
+   * Set the number of threads used to process images.
+   *
+   * @param threads number of threads, 1 runs everything on the calling thread
+   * @throws IllegalArgumentException if threads is not positive
+   */
+  public static void setParallelism(int threads) throws IllegalArgumentException {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    ForkJoinPool old = pool;
+    pool = new ForkJoinPool(threads);
+    old.shutdown();
+  }
+
+  /**
+   * Return the number of threads used to process images.
+   *
+   * @return number of threads
+   */
+  public static int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Return the pool used to process images, so that other work can share its threads.
+   *
+   * @return the executor
+   */
+  public static Executor getExecutor() {
+    return pool;
+  }
+
+  /**
+   * Process the rows [0, rows) in bands, in parallel when the image is large enough. Exceptions
+   * thrown by a band are rethrown unchanged on the calling thread.
+   *
+   * @param rows      number of rows
+   * @param rowPixels number of pixels in a row, used to size the bands
+   * @param band      work to do on each band
+   */
+  public static void forEachBand(int rows, int rowPixels, RowBand band) {
+    ForkJoinPool current = pool;
+    int bandRows = Math.max(1, MIN_BAND_PIXELS / Math.max(1, rowPixels));
+    bandRows = Math.max(bandRows, rows / (4 * current.getParallelism()));
+    if (current.getParallelism() == 1 || rows <= bandRows) {
+      band.run(0, rows);
+      return;
+    }
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    current.invoke(new BandTask(band, 0, rows, bandRows, failure));
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  private static class BandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final RowBand band;
+    private final int startRow;
+    private final int endRow;
+    private final int bandRows;
+    private final AtomicReference<RuntimeException> failure;
+
+    private BandTask(RowBand band, int startRow, int endRow, int bandRows,
+                     AtomicReference<RuntimeException> failure) {
+      this.band = band;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.bandRows = bandRows;
+      this.failure = failure;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.endRow - this.startRow <= this.bandRows) {
+        try {
+          this.band.run(this.startRow, this.endRow);
+        } catch (RuntimeException e) {
+          this.failure.compareAndSet(null, e);
+        }
+        return;
+      }
+      int middle = (this.startRow + this.endRow) >>> 1;
+      invokeAll(new BandTask(this.band, this.startRow, middle, this.bandRows, this.failure),
+              new BandTask(this.band, middle, this.endRow, this.bandRows, this.failure));
+    }
+  }
+}
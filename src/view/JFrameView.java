@@ -371,28 +371,16 @@ public class JFrameView extends JFrame implements IView {
     Raster raster = image.getRaster();
     final int w = image.getWidth();
     final int h = image.getHeight();
-    double[] r = new double[w * h];
-    r = raster.getSamples(0, 0, w, h, 0, r);
-    dataset.addSeries("Red", r, bins);
-    r = raster.getSamples(0, 0, w, h, 1, r);
-    dataset.addSeries("Green", r, bins);
-    r = raster.getSamples(0, 0, w, h, 2, r);
-    dataset.addSeries("Blue", r, bins);
+    double[] red = raster.getSamples(0, 0, w, h, 0, (double[]) null);
+    dataset.addSeries("Red", red, bins);
+    double[] green = raster.getSamples(0, 0, w, h, 1, (double[]) null);
+    dataset.addSeries("Green", green, bins);
+    double[] blue = raster.getSamples(0, 0, w, h, 2, (double[]) null);
+    dataset.addSeries("Blue", blue, bins);
+    //the intensity comes from the channel samples read above, not from every pixel again
     double[] intensity = new double[w * h];
-    int i = 0;
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        //Retrieving contents of a pixel
-        int pixel = image.getRGB(x, y);
-        //Creating a Color object from pixel value
-        Color color = new Color(pixel, true);
-        //Retrieving the R G B values
-        int red = color.getRed();
-        int green = color.getGreen();
-        int blue = color.getBlue();
-        intensity[i] = (red + green + blue) / 3.0;
-        i++;
-      }
+    for (int i = 0; i < intensity.length; i++) {
+      intensity[i] = (red[i] + green[i] + blue[i]) / 3.0;
     }
     dataset.addSeries("Intensity", intensity, bins);
     JFreeChart chart = ChartFactory.createXYLineChart("Histogram", "Value",
@@ -10,9 +10,22 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
@@ -27,8 +40,10 @@ import model.ImageList;
 import model.ImageSharpen;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * This class represents test class for the Image controller. It tests the functionality of an
@@ -113,9 +128,11 @@ public class ImageControllerExtTest {
             "\nbrighten value src-object-name dest-object-name" +
             "\nvertical-flip src-object-name dest-object-name" +
             "\nhorizontal-flip src-object-name dest-object-name" +
+            "\nrotate-clockwise src-object-name dest-object-name" +
+            "\nrotate-counterclockwise src-object-name dest-object-name" +
             "\ngreyscale value/red/green/blue/intensity/luma-component "
             + "src-object-name dest-object-name" +
-            "\nsave file-path object-name" +
+            "\nsave [-binary] file-path object-name(-binary saves .ppm files as P6)" +
             "\nrgb-split src-object-name object-name-red " +
             "object-name-green object-name-blue" +
             "\nrgb-combine dest-object-name src-name-red " +
@@ -125,7 +142,14 @@ public class ImageControllerExtTest {
             "\ngrey-scaled src-obj-name dest-obj-name" +
             "\nsepia src-obj-name dest-obj-name" +
             "\ndither src-obj-name dest-obj-name" +
+            "\nserpentine-dither src-obj-name dest-obj-name" +
+            "\natkinson-dither src-obj-name dest-obj-name" +
+            "\njjn-dither src-obj-name dest-obj-name" +
+            "\nstucki-dither src-obj-name dest-obj-name" +
+            "\nbayer-dither src-obj-name dest-obj-name" +
+            "\nblue-noise-dither src-obj-name dest-obj-name" +
             "\nrun file-path" +
+            "\ncache-stats (Print hits and misses of the result cache)" +
             "\nmenu (Print supported " +
             "instruction list)\nq or " +
             "quit (quit the program) ").split("\n"));
@@ -340,7 +364,7 @@ public class ImageControllerExtTest {
     controller.control();
     List<String> errorMsg = List.of(("Error: Invalid Image passed in input."));
     List<String> output = List.of(ap.toString().split("\n"));
-    assertEquals(output.subList(19, output.size() - 1), errorMsg);
+    assertEquals(output.subList(28, output.size() - 1), errorMsg);
   }
 
   /**
@@ -869,5 +893,316 @@ public class ImageControllerExtTest {
     assertEquals(imgSharpen, model.returnImage("jay-sharp"));
   }
 
-}
+  /**
+   * Test case to check which lines of a script are run and when their images are released.
+   */
+  @Test
+  public void testScriptGraph() {
+    List<String[][]> flows = new ArrayList<>();
+    flows.add(new String[][]{{}, {"a"}});            // load a
+    flows.add(new String[][]{{"a"}, {"b"}});         // brighten a b, never used
+    flows.add(new String[][]{{"a"}, {"c"}});         // blur a c
+    flows.add(new String[][]{{"c"}, {}});            // save c
+    flows.add(new String[][]{{}, {"c"}});            // load c, overwrites c
+    flows.add(new String[][]{{"c"}, {"view-image"}});
+    ScriptGraph graph = new ScriptGraph(flows, "view-image");
+    assertTrue(graph.isLive(0));
+    assertFalse(graph.isLive(1));
+    assertTrue(graph.isLive(2));
+    assertTrue(graph.isLive(3));
+    assertTrue(graph.isLive(4));
+    assertTrue(graph.isLive(5));
+    assertEquals(Arrays.asList("c"), graph.releasedAfter(3));
+    // blur is the last reader of a, which is never saved
+    assertEquals(Arrays.asList("a"), graph.releasedAfter(2));
+    // the saved c stays available after the script
+    flows.set(4, new String[][]{{}, {"d"}});         // load d instead
+    flows.set(5, new String[][]{{"d"}, {"view-image"}});
+    graph = new ScriptGraph(flows, "view-image");
+    assertTrue(graph.releasedAfter(3).isEmpty());
+    assertEquals(Arrays.asList("d"), graph.releasedAfter(5));
+    flows.add(2, null);                             // run, may use b
+    graph = new ScriptGraph(flows, "view-image");
+    assertTrue(graph.isLive(1));
+  }
+
+  /**
+   * Test case to check that independent script steps run concurrently and that steps sharing
+   * an image keep their order.
+   */
+  @Test
+  public void testScriptScheduler() {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    CyclicBarrier together = new CyclicBarrier(2);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    ScriptScheduler scheduler = new ScriptScheduler();
+    Runnable meet = () -> {
+      try {
+        together.await(10, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new IllegalStateException("steps did not run concurrently");
+      }
+    };
+    scheduler.add(new HashSet<>(), new HashSet<>(Arrays.asList("a")), false, () -> {
+      meet.run();
+      order.add("write a");
+    });
+    scheduler.add(new HashSet<>(), new HashSet<>(Arrays.asList("b")), false, meet);
+    scheduler.add(new HashSet<>(Arrays.asList("a")), new HashSet<>(), false,
+        () -> order.add("read a"));
+    scheduler.run(executor, true);
+    executor.shutdown();
+    assertEquals(Arrays.asList("write a", "read a"), order);
+  }
+
+  /**
+   * Test case to check that the scheduler starts no step once a step has failed, not even one
+   * earlier in the script, and reports the failure after the running steps have finished.
+   */
+  @Test
+  public void testScriptSchedulerStopsAtFailure() {
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    ScriptScheduler scheduler = new ScriptScheduler();
+    // the first step keeps running until the failing step is done
+    scheduler.add(new HashSet<>(), new HashSet<>(Arrays.asList("a")), false, () -> {
+      long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (executor.getCompletedTaskCount() == 0 && System.nanoTime() < end) {
+        Thread.yield();
+      }
+      order.add("write a");
+    });
+    scheduler.add(new HashSet<>(Arrays.asList("a")), new HashSet<>(), false,
+        () -> order.add("read a"));
+    scheduler.add(new HashSet<>(), new HashSet<>(Arrays.asList("b")), false, () -> {
+      throw new IllegalArgumentException("b failed");
+    });
+    try {
+      scheduler.run(executor, true);
+      fail("failed step");
+    } catch (IllegalArgumentException e) {
+      assertEquals("b failed", e.getMessage());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(Arrays.asList("write a"), order);
+  }
+
+  /**
+   * Test case to check that a chain of pixel operations in a script is not fused over an image
+   * the GUI shows or a later run may read.
+   *
+   * @throws IOException if the test scripts cannot be written
+   */
+  @Test
+  public void testScriptChainKeepsNeededImages() throws IOException {
+    File inner = File.createTempFile("inner", ".txt");
+    File script = File.createTempFile("chain", ".txt");
+    File saved = File.createTempFile("chain", ".ppm");
+    inner.deleteOnExit();
+    script.deleteOnExit();
+    saved.deleteOnExit();
+    Files.write(inner.toPath(), ("save " + saved.getPath() + " JD-bright").getBytes());
+    Files.write(script.toPath(), ("load res/JD.ppm JD"
+            + "\nbrighten 10 JD view-image"
+            + "\nvertical-flip view-image JD-flip"
+            + "\nbrighten 20 JD JD-bright"
+            + "\nvertical-flip JD-bright JD-bright-flip"
+            + "\nrun " + inner.getPath()).getBytes());
+    Readable rd = new InputStreamReader(new ByteArrayInputStream(
+            ("run " + script.getPath()).getBytes()));
+    ImageCollection model = new ImageList();
+    ApplicationController controller = new ImageControllerExt(model, rd, new StringBuilder());
+    controller.control();
+    Image img = new ImageImpl.ImageBuilder().loadFile(this.loadPPM("res/JD.ppm"));
+    assertEquals(img.copy().brighten(10), model.returnImage("view-image"));
+    assertEquals(img.copy().brighten(10).verticalFlip(), model.returnImage("JD-flip"));
+    assertEquals(img.copy().brighten(20),
+            new ImageImpl.ImageBuilder().loadFile(this.loadPPM(saved.getPath())));
+  }
+
+  /**
+   * Test case to check that the PPM reader skips comments anywhere in the file and rejects
+   * samples above the maximum value.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testPnmReader() throws IOException {
+    File file = File.createTempFile("reader", ".ppm");
+    file.deleteOnExit();
+    Files.write(file.toPath(), ("P3 # comment\n2 1 # size\n"
+            + "255\n#pixels\n255 0 0\t0 128 255# end").getBytes());
+    Image image = PnmReader.read(file.getPath());
+    assertEquals(new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 1 255 255 0 0 0 128 255")), image);
+    Files.write(file.toPath(), "P3 1 1 100 101 0 0".getBytes());
+    try {
+      PnmReader.read(file.getPath());
+      fail("sample above the maximum value");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid pixel value passed in the file.", e.getMessage());
+    }
+  }
+
+  /**
+   * Test case to check that 16-bit PNM files are rejected with a clear error, and that an image
+   * whose max value is above 255 is not saved to a binary format with samples.
+   *
+   * @throws IOException if the test files cannot be written
+   */
+  @Test
+  public void testMaxValueAbove255Files() throws IOException {
+    File file = File.createTempFile("wide", ".pgm");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "P5 1 1 65535\n\0\1".getBytes(StandardCharsets.US_ASCII));
+    try {
+      PnmReader.read(file.getPath());
+      fail("16-bit file");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid PNM file: maximum value must be between 1 and 255, 16-bit samples "
+              + "are not supported.", e.getMessage());
+    }
+    Image image = new ImageImpl.ImageBuilder().loadFile(new StringBuilder("1 1 1000 5 5 5"));
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      image.writeBinary(channel, "pgm");
+      fail("max value above 255");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Binary PNM files with a maximum value above 255"));
+    }
+  }
 
+  /**
+   * Test case to check that an image saved as a binary PPM file loads back unchanged.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testBinaryPpm() throws IOException {
+    File file = File.createTempFile("binary", ".pnm");
+    file.deleteOnExit();
+    Readable rd = new InputStreamReader(new ByteArrayInputStream(("load JD.ppm JD"
+            + "\nsave " + file.getPath() + " JD"
+            + "\nload " + file.getPath() + " JD-binary"
+            + "\nquit").getBytes()));
+    ImageCollection model = new ImageList();
+    ApplicationController controller = new ImageControllerExt(model, rd, new StringBuilder());
+    controller.control();
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    assertEquals("P6\n150 200\n255\n", new String(bytes, 0, 15));
+    assertEquals(15 + 150 * 200 * 3, bytes.length);
+    assertEquals(model.returnImage("JD"), model.returnImage("JD-binary"));
+  }
+
+  /**
+   * Test case to check that a script only reading an image loaded before it was run leaves that
+   * image in the session.
+   *
+   * @throws IOException if the test script cannot be written
+   */
+  @Test
+  public void testScriptKeepsSessionImages() throws IOException {
+    File script = File.createTempFile("reader", ".txt");
+    File saved = File.createTempFile("reader", ".ppm");
+    script.deleteOnExit();
+    saved.deleteOnExit();
+    Files.write(script.toPath(), ("brighten 10 JD JD-bright"
+            + "\nsave " + saved.getPath() + " JD-bright").getBytes());
+    Readable rd = new InputStreamReader(new ByteArrayInputStream(("load res/JD.ppm JD"
+            + "\nrun " + script.getPath()
+            + "\nquit").getBytes()));
+    ImageCollection model = new ImageList();
+    ApplicationController controller = new ImageControllerExt(model, rd, new StringBuilder());
+    controller.control();
+    Image img = new ImageImpl.ImageBuilder().loadFile(this.loadPPM("res/JD.ppm"));
+    assertEquals(img, model.returnImage("JD"));
+    assertEquals(img.copy().brighten(10), model.returnImage("JD-bright"));
+    List<String[][]> flows = new ArrayList<>();
+    flows.add(new String[][]{{"a"}, {"b"}});         // brighten a b, a from the session
+    flows.add(new String[][]{{"b"}, {}});            // save b
+    assertTrue(new ScriptGraph(flows, "view-image").releasedAfter(0).isEmpty());
+  }
+
+  /**
+   * Test case to check that save -binary writes a .ppm path as binary PPM, greyscale images too,
+   * and is refused for other kinds of files.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testSaveBinaryOption() throws IOException {
+    File file = File.createTempFile("binary", ".ppm");
+    file.deleteOnExit();
+    StringBuilder out = new StringBuilder();
+    Readable rd = new InputStreamReader(new ByteArrayInputStream(("load JD.ppm JD"
+            + "\ngreyscale luma-component JD JD-grey"
+            + "\nsave -binary " + file.getPath() + " JD-grey"
+            + "\nload " + file.getPath() + " JD-grey-file"
+            + "\nsave -binary JD-grey.png JD-grey"
+            + "\nquit").getBytes()));
+    ImageCollection model = new ImageList();
+    ApplicationController controller = new ImageControllerExt(model, rd, out);
+    controller.control();
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    assertEquals("P6\n150 200\n255\n", new String(bytes, 0, 15));
+    assertEquals(15 + 150 * 200 * 3, bytes.length);
+    assertEquals(model.returnImage("JD-grey"), model.returnImage("JD-grey-file"));
+    assertTrue(out.toString().contains("Error: -binary is only supported for PNM files"));
+    assertFalse(new File("JD-grey.png").exists());
+  }
+
+  /**
+   * Test case to check that greyscale images are saved as PGM and dithered images as 1-bit PBM,
+   * and that both load back unchanged.
+   *
+   * @throws IOException if the test files cannot be written
+   */
+  @Test
+  public void testGreyAndBitmapFiles() throws IOException {
+    File grey = File.createTempFile("grey", ".pgm");
+    File dithered = File.createTempFile("dithered", ".pnm");
+    grey.deleteOnExit();
+    dithered.deleteOnExit();
+    Readable rd = new InputStreamReader(new ByteArrayInputStream(("load JD.ppm JD"
+            + "\ngreyscale luma-component JD JD-grey"
+            + "\ndither JD JD-dither"
+            + "\nsave " + grey.getPath() + " JD-grey"
+            + "\nsave " + dithered.getPath() + " JD-dither"
+            + "\nload " + grey.getPath() + " JD-grey-file"
+            + "\nload " + dithered.getPath() + " JD-dither-file"
+            + "\nquit").getBytes()));
+    ImageCollection model = new ImageList();
+    ApplicationController controller = new ImageControllerExt(model, rd, new StringBuilder());
+    controller.control();
+    byte[] bytes = Files.readAllBytes(grey.toPath());
+    assertEquals("P5\n150 200\n255\n", new String(bytes, 0, 15));
+    assertEquals(15 + 150 * 200, bytes.length);
+    bytes = Files.readAllBytes(dithered.toPath());
+    assertEquals("P4\n150 200\n", new String(bytes, 0, 11));
+    assertEquals(11 + (150 + 7) / 8 * 200, bytes.length);
+    assertEquals(model.returnImage("JD-grey"), model.returnImage("JD-grey-file"));
+    assertEquals(model.returnImage("JD-dither"), model.returnImage("JD-dither-file"));
+  }
+
+  /**
+   * Test case to check that saving an image in a format that cannot hold it reports an error
+   * and leaves the existing file unchanged.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testFailedSaveKeepsFile() throws IOException {
+    File file = File.createTempFile("bitmap", ".pbm");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "P1 1 1 0".getBytes());
+    StringBuilder out = new StringBuilder();
+    Readable rd = new InputStreamReader(new ByteArrayInputStream(("load JD.ppm JD"
+            + "\ngreyscale luma-component JD JD-grey"
+            + "\nsave " + file.getPath() + " JD-grey"
+            + "\nquit").getBytes()));
+    ApplicationController controller = new ImageControllerExt(new ImageList(), rd, out);
+    controller.control();
+    assertTrue(out.toString().contains("Error: Pass black and white images only"));
+    assertEquals("P1 1 1 0", new String(Files.readAllBytes(file.toPath())));
+  }
+}
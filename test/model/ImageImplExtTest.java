@@ -9,9 +9,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
 import java.util.stream.Collectors;
@@ -21,6 +26,8 @@ import javax.imageio.ImageIO;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * This class represents test cases for model.
@@ -104,6 +111,23 @@ public class ImageImplExtTest {
     }
   }
 
+  /**
+   * Build an image whose samples follow a fixed pattern, so every channel and every pixel
+   * differ without reading a file.
+   *
+   * @param width  width of the image
+   * @param height height of the image
+   * @param step   step between consecutive samples, modulo 256
+   * @return the image
+   */
+  private Image patternImage(int width, int height, int step) {
+    StringBuilder builder = new StringBuilder(width + " " + height + " 255");
+    for (int i = 0; i < width * height * 3; i++) {
+      builder.append(' ').append((i * step) % 256);
+    }
+    return new ImageImpl.ImageBuilder().loadFile(builder);
+  }
+
   /**
    * initialise image by reading it from file.
    *
@@ -208,6 +232,441 @@ public class ImageImplExtTest {
     }
   }
 
+  /**
+   * testing that the border modes of a convolution sample the expected pixels.
+   */
+  @Test
+  public void testConvolutionBorderModes() {
+    StringBuilder builder = new StringBuilder("3 1 255 10 10 10 20 20 20 30 30 30");
+    Image row = new ImageImpl.ImageBuilder().loadFile(builder);
+    double[] leftNeighbour = {0, 0, 0, 1, 0, 0, 0, 0, 0};
+    Image zero = ((ImageExt) row).runCommand(new ConvolutionCommand(leftNeighbour, 3, 3,
+            ConvolutionCommand.BorderMode.ZERO));
+    Image clamp = ((ImageExt) row).runCommand(new ConvolutionCommand(leftNeighbour, 3, 3,
+            ConvolutionCommand.BorderMode.CLAMP));
+    Image mirror = ((ImageExt) row).runCommand(new ConvolutionCommand(leftNeighbour, 3, 3,
+            ConvolutionCommand.BorderMode.MIRROR));
+    assertEquals(new ImageImpl.ImageBuilder().loadFile(
+            new StringBuilder("3 1 255 0 0 0 10 10 10 20 20 20")), zero);
+    assertEquals(new ImageImpl.ImageBuilder().loadFile(
+            new StringBuilder("3 1 255 10 10 10 10 10 10 20 20 20")), clamp);
+    assertEquals(new ImageImpl.ImageBuilder().loadFile(
+            new StringBuilder("3 1 255 20 20 20 10 10 10 20 20 20")), mirror);
+  }
+
+  /**
+   * testing that kernels of rank one, like the blur, are found to be separable and others not.
+   */
+  @Test
+  public void testSeparableKernelDetection() {
+    assertTrue(new ImageBlur().isSeparable());
+    assertFalse(new ImageSharpen().isSeparable());
+    double[] cross = {0, 1, 0, 1, 1, 1, 0, 1, 0};
+    assertFalse(new ConvolutionCommand(cross, 3, 3,
+            ConvolutionCommand.BorderMode.ZERO).isSeparable());
+  }
+
+  /**
+   * testing that operations split into bands of rows on several threads give the same images
+   * as on a single thread.
+   */
+  @Test
+  public void testParallelBandsMatchSequential() {
+    // large enough for the wavefront of the dithers: at least 1 << 16 pixels, wider than two
+    // tiles of the widest matrix (2 * 192 for Jarvis, Judice and Ninke) and taller than a tile
+    Image image = this.patternImage(400, 180, 7919);
+    int threads = RowBandScheduler.getParallelism();
+    boolean wavefront = ErrorDiffusion.isWavefront();
+    try {
+      ErrorDiffusion.setWavefront(true);
+      RowBandScheduler.setParallelism(1);
+      Image blur = ((ImageExt) image).runCommand(new ImageBlur());
+      Image sharpen = ((ImageExt) image).runCommand(new ImageSharpen());
+      Image flipped = image.copy().verticalFlip().horizontalFlip().brighten(20);
+      Image dither = ((ImageExt) image).runCommand(new ImageDither());
+      Image atkinson = ((ImageExt) image).runCommand(ErrorDiffusion.atkinson());
+      Image jarvis = ((ImageExt) image).runCommand(ErrorDiffusion.jarvisJudiceNinke());
+      RowBandScheduler.setParallelism(4);
+      ResultCache.clear();
+      assertEquals(blur, ((ImageExt) image).runCommand(new ImageBlur()));
+      assertEquals(sharpen, ((ImageExt) image).runCommand(new ImageSharpen()));
+      assertEquals(dither, ((ImageExt) image).runCommand(new ImageDither()));
+      assertEquals(atkinson, ((ImageExt) image).runCommand(ErrorDiffusion.atkinson()));
+      assertEquals(jarvis, ((ImageExt) image).runCommand(ErrorDiffusion.jarvisJudiceNinke()));
+      assertEquals(flipped, image.copy().verticalFlip().horizontalFlip().brighten(20));
+    } finally {
+      RowBandScheduler.setParallelism(threads);
+      ErrorDiffusion.setWavefront(wavefront);
+    }
+  }
+
+  /**
+   * testing that the number of threads must be positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    RowBandScheduler.setParallelism(0);
+  }
+
+  /**
+   * testing that a fused chain of pixel operations and flips gives the same image as running the
+   * steps one by one, and that an equal chain finds its result in the cache.
+   */
+  @Test
+  public void testFusedChainMatchesSteps() {
+    Image image = this.patternImage(5, 3, 53);
+    List<List<Double>> sepiaMat = new ArrayList<>();
+    sepiaMat.add(new ArrayList<>(Arrays.asList(0.393, 0.769, 0.189)));
+    sepiaMat.add(new ArrayList<>(Arrays.asList(0.349, 0.686, 0.168)));
+    sepiaMat.add(new ArrayList<>(Arrays.asList(0.272, 0.534, 0.131)));
+    ColorTransform sepia = new ColorTransform(sepiaMat);
+    Image steps = ((ImageExt) image.copy().brighten(40).verticalFlip()).runCommand(sepia);
+    steps = steps.horizontalFlip().greyScale("intensity-component").brighten(-25);
+    FusedCommand fused = new FusedCommand.Builder().brighten(40).verticalFlip()
+            .pixelOperation(sepia).horizontalFlip().greyScale("intensity-component")
+            .brighten(-25).build();
+    assertEquals(steps, ((ImageExt) image).runCommand(fused));
+    // a chain built again with the same steps is found in the result cache
+    FusedCommand again = new FusedCommand.Builder().brighten(40).verticalFlip()
+            .pixelOperation(new ColorTransform(sepiaMat)).horizontalFlip()
+            .greyScale("intensity-component").brighten(-25).build();
+    assertEquals(fused, again);
+    assertEquals(fused.hashCode(), again.hashCode());
+    assertFalse(fused.equals(new FusedCommand.Builder().brighten(40).verticalFlip()
+            .pixelOperation(sepia).greyScale("intensity-component").brighten(-25).build()));
+    long hits = ResultCache.getHits();
+    assertEquals(steps, ((ImageExt) image).runCommand(again));
+    assertEquals(hits + 1, ResultCache.getHits());
+  }
+
+  /**
+   * testing that repeating an operation on the same image is answered from the result cache,
+   * and that a disabled cache answers nothing.
+   */
+  @Test
+  public void testResultCache() {
+    ResultCache.clear();
+    Image image = this.patternImage(4, 2, 29);
+    Image blur = ((ImageExt) image).runCommand(new ImageBlur());
+    assertEquals(blur, ((ImageExt) image).runCommand(new ImageBlur()));
+    assertEquals(1, ResultCache.getHits());
+    Image bright = image.copy().brighten(30);
+    Image cachedBright = image.copy().brighten(30);
+    assertEquals(bright, cachedBright);
+    assertEquals(2, ResultCache.getHits());
+    // changing an image built on cached pixels must not change the cached result
+    cachedBright.brighten(10);
+    assertEquals(bright, image.copy().brighten(30));
+    assertEquals(3, ResultCache.getHits());
+    ResultCache.setCapacity(0);
+    ((ImageExt) image).runCommand(new ImageBlur());
+    assertEquals(3, ResultCache.getHits());
+    ResultCache.setCapacity(256L << 20);
+  }
+
+  /**
+   * testing that images with the same pixels have the same hash, and that flips change it.
+   */
+  @Test
+  public void testContentHash() {
+    Image image = this.patternImage(3, 3, 41);
+    Image same = this.patternImage(3, 3, 41);
+    assertEquals(image, same);
+    assertEquals(image.hashCode(), same.hashCode());
+    Image flipped = image.copy();
+    assertEquals(image.hashCode(), flipped.hashCode());
+    flipped.horizontalFlip();
+    assertFalse(image.equals(flipped));
+    assertTrue(image.hashCode() != flipped.hashCode());
+    flipped.horizontalFlip();
+    assertEquals(image, flipped);
+    assertEquals(image.hashCode(), flipped.hashCode());
+  }
+
+  /**
+   * testing rotations, and flips of rotated images.
+   */
+  @Test
+  public void testRotation() {
+    Image image = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "3 2 255 1 1 1 2 2 2 3 3 3 4 4 4 5 5 5 6 6 6"));
+    Image clockwise = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 3 255 4 4 4 1 1 1 5 5 5 2 2 2 6 6 6 3 3 3"));
+    Image counter = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 3 255 3 3 3 6 6 6 2 2 2 5 5 5 1 1 1 4 4 4"));
+    assertEquals(clockwise, image.rotateClockwise());
+    assertEquals(counter, image.rotateCounterClockwise());
+    assertEquals(counter.copy().verticalFlip().horizontalFlip(), image.rotateClockwise());
+    assertEquals(image, image.rotateClockwise().rotateCounterClockwise());
+    // flips of a rotated view act on the rotated image, not on the stored pixels
+    assertEquals(clockwise.copy().horizontalFlip(), image.rotateClockwise().horizontalFlip());
+    assertEquals(image.copy().horizontalFlip().verticalFlip(),
+            image.rotateClockwise().rotateClockwise());
+    assertEquals(image.getPixels().get(0).get(2),
+            image.rotateCounterClockwise().getPixels().get(0).get(0));
+    assertEquals(clockwise.encodeImage().toString(),
+            image.rotateClockwise().encodeImage().toString());
+  }
+
+  /**
+   * testing that a greyscale image stored as levels behaves like the same pixels stored packed.
+   */
+  @Test
+  public void testGreyImage() {
+    Image grey = this.patternImage(5, 3, 67).greyScale("luma-component");
+    assertTrue(grey instanceof GreyImage);
+    // the same pixels stored packed
+    Image packed = new ImageImplExt(5, 3, 255, ImageImpl.pixelData(grey.copy()));
+    assertEquals(packed, grey);
+    assertEquals(grey, packed);
+    // comparing with packed pixels does not expand the levels
+    assertTrue(((GreyImage) grey).holdsLevels());
+    assertFalse(grey.equals(packed.copy().horizontalFlip()));
+    assertFalse(packed.copy().horizontalFlip().equals(grey));
+    assertTrue(((GreyImage) grey).holdsLevels());
+    assertEquals(packed.hashCode(), grey.hashCode());
+    for (String component : new String[]{"red", "value", "intensity", "luma"}) {
+      assertEquals(packed.greyScale(component), grey.greyScale(component));
+    }
+    assertEquals(packed.copy().brighten(-40), grey.copy().brighten(-40));
+    assertEquals(packed.copy().brighten(300), grey.copy().brighten(300));
+    assertEquals(packed.copy().horizontalFlip(), grey.copy().horizontalFlip());
+    assertEquals(packed.copy().verticalFlip(), grey.copy().verticalFlip());
+    assertEquals(packed.rotateClockwise(), grey.rotateClockwise());
+    assertEquals(packed.rotateCounterClockwise(), grey.rotateCounterClockwise());
+    assertEquals(packed.encodeImage().toString(), grey.encodeImage().toString());
+    assertEquals(packed.getPixels(), grey.getPixels());
+    assertEquals(packed.rgbSplit(), grey.rgbSplit());
+    assertEquals(packed.rgbCombine(packed, packed), grey.rgbCombine(grey, grey));
+    assertTrue(((ImageExt) grey).runCommand(new ImageDither()) instanceof GreyImage);
+    // an operation without a single plane form expands the image and keeps it correct
+    Image blurred = ((ImageExt) grey.copy()).runCommand(new ImageBlur());
+    assertEquals(((ImageExt) packed).runCommand(new ImageBlur()), blurred);
+  }
+
+  /**
+   * testing that flips and rotations of a greyscale image read its levels through their
+   * orientation, without expanding or copying them, and give the same image as packed pixels.
+   */
+  @Test
+  public void testGreyImageOrientation() {
+    Image image = this.patternImage(5, 3, 71);
+    Image packed = image.greyScale("luma-component");
+    packed = new ImageImplExt(5, 3, 255, ImageImpl.pixelData(packed.copy()));
+    Image[] greys = {image.greyScale("luma-component"),
+        image.copy().brighten(0).rgbSplit().get("green")};
+    Image packedGreen = image.greyScale("green-component");
+    packedGreen = new ImageImplExt(5, 3, 255, ImageImpl.pixelData(packedGreen.copy()));
+    Image[] expected = {packed, packedGreen};
+    for (int i = 0; i < greys.length; i++) {
+      Image grey = greys[i];
+      Image turned = grey.rotateClockwise().horizontalFlip().rotateClockwise().verticalFlip();
+      Image packedTurned = expected[i].rotateClockwise().horizontalFlip().rotateClockwise()
+              .verticalFlip();
+      assertTrue(turned instanceof GreyImage);
+      assertEquals(packedTurned, turned);
+      assertEquals(packedTurned.encodeImage().toString(), turned.encodeImage().toString());
+      assertEquals(packedTurned.getPixels(), turned.getPixels());
+      assertEquals(packedTurned.hashCode(), turned.hashCode());
+      assertTrue(((GreyImage) turned).holdsLevels());
+      Image rotated = grey.rotateCounterClockwise();
+      assertEquals(expected[i].rotateCounterClockwise(), rotated);
+      assertEquals(expected[i].rotateCounterClockwise().brighten(20), rotated.copy().brighten(20));
+      assertEquals(expected[i].copy().verticalFlip().horizontalFlip(),
+              grey.copy().verticalFlip().horizontalFlip());
+      assertTrue(((GreyImage) grey).holdsLevels());
+    }
+    // the channels of a rotated image are views in the same orientation, and putting them back
+    // together gives the rotated image
+    Image rotated = image.rotateClockwise();
+    Map<String, Image> channels = rotated.rgbSplit();
+    assertEquals(rotated.greyScale("red-component"), channels.get("red"));
+    assertEquals(rotated, channels.get("red").rgbCombine(channels.get("green"),
+            channels.get("blue")));
+    assertEquals(rotated.copy().horizontalFlip(), channels.get("red").copy().horizontalFlip()
+            .rgbCombine(channels.get("green").copy().horizontalFlip(),
+                    channels.get("blue").copy().horizontalFlip()));
+  }
+
+  /**
+   * testing that the channels of a split share the pixels of the image, and that combining them
+   * gives the image back.
+   */
+  @Test
+  public void testChannelViews() {
+    Image image = this.patternImage(4, 3, 89);
+    Image original = image.copy().brighten(0);
+    Map<String, Image> channels = image.rgbSplit();
+    assertEquals(image.greyScale("red-component"), channels.get("red"));
+    assertEquals(image.greyScale("green-component"), channels.get("green"));
+    assertEquals(image.greyScale("blue-component"), channels.get("blue"));
+    // putting the channels of an image back together gives the image without a copy
+    Image combined = channels.get("red").rgbCombine(channels.get("green"), channels.get("blue"));
+    assertEquals(image, combined);
+    assertTrue(ImageImpl.pixelData(combined) == ImageImpl.pixelData(image));
+    // changing the image after the split does not change the views
+    image.brighten(50);
+    assertEquals(original.greyScale("red-component"), channels.get("red"));
+    Image tint = channels.get("red").copy().brighten(30)
+            .rgbCombine(channels.get("green"), channels.get("blue").copy().verticalFlip());
+    Image expected = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            original.encodeImage())).greyScale("red-component").brighten(30)
+            .rgbCombine(original.greyScale("green-component"),
+                    original.greyScale("blue-component").verticalFlip());
+    assertEquals(expected, tint);
+  }
+
+  /**
+   * testing ordered dithering with a Bayer matrix and with blue noise.
+   */
+  @Test
+  public void testOrderedDither() {
+    Image grey = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "4 2 255 100 100 100 100 100 100 100 100 100 100 100 100 "
+            + "100 100 100 100 100 100 100 100 100 100 100 100"));
+    Image expected = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "4 2 255 255 255 255 0 0 0 255 255 255 0 0 0 "
+            + "0 0 0 255 255 255 0 0 0 255 255 255"));
+    assertEquals(expected, ((ImageExt) grey).runCommand(new OrderedDither(2)));
+    assertEquals(new OrderedDither(8), new OrderedDither(8));
+    assertFalse(new OrderedDither(8).equals(new OrderedDither(4)));
+    StringBuilder builder = new StringBuilder("64 64 255");
+    for (int i = 0; i < 64 * 64 * 3; i++) {
+      builder.append(" 128");
+    }
+    // every rank of the blue noise tile is used once, so half of a mid grey turns white
+    Image dithered = ((ImageExt) new ImageImpl.ImageBuilder().loadFile(builder))
+            .runCommand(OrderedDither.blueNoise());
+    int white = 0;
+    for (List<ImageImpl.Pixel> row : dithered.getPixels()) {
+      for (ImageImpl.Pixel pixel : row) {
+        white += pixel.red == 255 ? 1 : 0;
+      }
+    }
+    assertEquals(64 * 64 / 2, white);
+  }
+
+  /**
+   * testing error diffusion with the different matrices.
+   */
+  @Test
+  public void testErrorDiffusion() {
+    Image grey = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "3 1 255 100 100 100 100 100 100 100 100 100"));
+    // the error of the first pixel pushes the second one over the threshold
+    Image floyd = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "3 1 255 0 0 0 255 255 255 0 0 0"));
+    // a weight of 1/8 is not enough
+    Image atkinson = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "3 1 255 0 0 0 0 0 0 0 0 0"));
+    assertEquals(floyd, ((ImageExt) grey).runCommand(new ImageDither()));
+    assertEquals(floyd, ((ImageExt) grey).runCommand(ErrorDiffusion.floydSteinberg(true)));
+    assertEquals(atkinson, ((ImageExt) grey).runCommand(ErrorDiffusion.atkinson()));
+    assertEquals(new ImageDither(), ErrorDiffusion.floydSteinberg(false));
+    assertFalse(new ImageDither().equals(ErrorDiffusion.floydSteinberg(true)));
+    Image image = this.patternImage(40, 30, 37);
+    assertEquals(((ImageExt) image).runCommand(new ImageDither()),
+            ((ImageExt) image).runCommand(new ErrorDiffusion(new int[][]{{0, 0, 7}, {3, 5, 1}},
+                    1, 16, false)));
+    assertFalse(((ImageExt) image).runCommand(ErrorDiffusion.stucki())
+            .equals(((ImageExt) image).runCommand(ErrorDiffusion.jarvisJudiceNinke())));
+  }
+
+  /**
+   * testing that a diffusion matrix may not spread error to pixels already visited.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDiffusionMatrix() {
+    new ErrorDiffusion(new int[][]{{1, 0, 7}, {3, 5, 1}}, 1, 16, false);
+  }
+
+  /**
+   * testing that the size of a Bayer matrix must be 2, 4, 8 or 16.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBayerSize() {
+    new OrderedDither(3);
+  }
+
+  /**
+   * testing that brightening or dithering an image whose max value is above 255 keeps every
+   * channel within its 8 bits instead of spilling into the next channel.
+   */
+  @Test
+  public void testMaxValueAbove255() {
+    Image image = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 1 1000 250 10 200 200 200 200"));
+    Image expected = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 1 1000 255 110 255 255 255 255"));
+    assertEquals(expected, image.copy().brighten(100));
+    Image grey = image.greyScale("red-component");
+    assertEquals(expected.greyScale("red-component"), grey.brighten(100));
+    Image white = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 1 1000 255 255 255 255 255 255"));
+    assertEquals(white, ((ImageExt) expected.greyScale("red-component"))
+            .runCommand(new OrderedDither(2)));
+  }
+
+  /**
+   * testing that error diffusion of an image whose max value is above 255 sets white pixels to
+   * 255, so the result is still black and white and can be saved as a binary PBM file.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testErrorDiffusionMaxValueAbove255() throws IOException {
+    Image image = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 1 1000 250 250 250 10 10 10"));
+    Image expected = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 1 1000 255 255 255 0 0 0"));
+    Image dither = ((ImageExt) image).runCommand(ErrorDiffusion.floydSteinberg(false));
+    assertEquals(expected, dither);
+    File file = File.createTempFile("dither", ".pbm");
+    file.deleteOnExit();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      dither.writeBinary(channel, "pbm");
+    }
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    assertEquals("P4", new String(bytes, 0, 2, StandardCharsets.US_ASCII));
+    // the white pixel is clear and the black pixel is set
+    assertEquals(0x40, bytes[bytes.length - 1]);
+  }
+
+  /**
+   * testing that a sample above the 8 bits of a channel is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testSampleAbove255() {
+    new ImageImpl.ImageBuilder().loadFile(new StringBuilder("1 1 1000 256 0 0"));
+  }
+
+  /**
+   * testing that images of different widths and heights cannot be combined, even with the same
+   * number of pixels.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCombineMismatchedDimensions() {
+    Image red = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 3 255 1 1 1 2 2 2 3 3 3 4 4 4 5 5 5 6 6 6"));
+    Image other = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "3 2 255 1 1 1 2 2 2 3 3 3 4 4 4 5 5 5 6 6 6"));
+    red.rgbCombine(other, other);
+  }
+
+  /**
+   * testing that greyscale images of different widths and heights cannot be combined, even with
+   * the same number of pixels.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCombineMismatchedGreyImages() {
+    Image red = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "2 3 255 1 1 1 2 2 2 3 3 3 4 4 4 5 5 5 6 6 6")).greyScale("red-component");
+    Image other = new ImageImpl.ImageBuilder().loadFile(new StringBuilder(
+            "3 2 255 1 1 1 2 2 2 3 3 3 4 4 4 5 5 5 6 6 6")).greyScale("red-component");
+    assertTrue(red instanceof GreyImage && other instanceof GreyImage);
+    red.rgbCombine(other, other);
+  }
+
   private int convertRGBToSepia(List<Double> pixMultiplier, ImageImpl.Pixel pixel) {
     int result = (int) ((pixMultiplier.get(0) * pixel.red) + (pixMultiplier.get(1) * pixel.green)
                         + (pixMultiplier.get(2) * pixel.blue));
@@ -360,4 +819,67 @@ public class ImageImplExtTest {
       return (int) pixelSum;
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Test case to check that streaming an image as plain PPM writes the same text as encoding it,
+   * for packed and greyscale images larger than the write buffer.
+   *
+   * @throws IOException if the test file cannot be written
+   */
+  @Test
+  public void testWritePlain() throws IOException {
+    Image image = this.patternImage(300, 100, 67);
+    File file = File.createTempFile("plain", ".ppm");
+    file.deleteOnExit();
+    for (Image written : new Image[]{image, image.greyScale("luma-component")}) {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        written.writePlain(channel);
+      }
+      assertEquals("P3\n" + written.encodeImage(),
+              new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+    }
+  }
+
+  /**
+   * Test case to check that buffered images of every layout convert to the same pixels as reading
+   * them one by one, and that images convert back to integer RGB buffered images.
+   */
+  @Test
+  public void testBufferedImageConversion() {
+    int[] rgb = new int[7 * 5];
+    for (int i = 0; i < rgb.length; i++) {
+      rgb[i] = (i * 0x3F1D27) & 0xFFFFFF;
+    }
+    int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+                   BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+                   BufferedImage.TYPE_USHORT_565_RGB};
+    for (int type : types) {
+      BufferedImage buffered = new BufferedImage(7, 5, type);
+      buffered.setRGB(0, 0, 7, 5, rgb, 0, 7);
+      int[] expected = new int[rgb.length];
+      for (int i = 0; i < expected.length; i++) {
+        expected[i] = buffered.getRGB(i % 7, i / 7) & 0xFFFFFF;
+      }
+      Image image = new ImageImpl.ImageBuilder().loadBufferedImage(buffered);
+      assertTrue(Arrays.equals(expected, ImageImpl.pixelData(image)));
+      BufferedImage converted = image.getBufferedImage();
+      assertEquals(BufferedImage.TYPE_INT_RGB, converted.getType());
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(expected[i], converted.getRGB(i % 7, i / 7) & 0xFFFFFF);
+      }
+      // the buffered image shares the pixels, so changing the image must not change it
+      Image brighter = image.brighten(10);
+      assertEquals(expected[3], converted.getRGB(3, 0) & 0xFFFFFF);
+      assertEquals(brighter, new ImageImpl.ImageBuilder().loadBufferedImage(
+              brighter.getBufferedImage()));
+    }
+    Image grey = new ImageImpl.ImageBuilder().loadPixels(7, 5, 255, rgb.clone())
+            .greyScale("luma-component");
+    BufferedImage greyBuffered = grey.getBufferedImage();
+    int[] levels = ImageImpl.pixelData(grey.copy());
+    for (int i = 0; i < levels.length; i++) {
+      assertEquals(levels[i], greyBuffered.getRGB(i % 7, i / 7) & 0xFFFFFF);
+    }
+  }
+}